@@ -0,0 +1,153 @@
+package architecture;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * This class is the super class of the programs generated by the StaticRecompiler.
+ * The generated class has a method for each basic block of the program and a runBlock method
+ * that calls the one starting in the PC. The commands out of the blocks (the end of the program,
+ * addresses reached only through a changed stack) are executed by the FunctionalEngine step.
+ * If the program writes into its own code, the blocks are not used anymore.
+ * The memory with the program is not in the class: it is read from the IMAGE resource
+ * of the jar when the program starts (see StaticRecompiler.writeImage).
+ */
+public abstract class AotEngine extends FunctionalEngine {
+
+	/**
+	 * This value is returned by runBlock when there is no block in the address
+	 */
+	public static final int NO_BLOCK = Integer.MIN_VALUE;
+
+	/**
+	 * The resource, in the jar, with the memory of the program
+	 */
+	public static final String IMAGE = "program.image";
+
+	private static final String REGISTER_NAMES[] = {"RPG0", "RPG1", "RPG2", "RPG3", "PC", "IR",
+													"Flags", "StackBotton", "StackTop", "StackLimit"};
+
+	private int codeEnd; //the positions before it were translated
+	private boolean compiled = true;
+
+	/**
+	 * @param memory the memory, with the program
+	 * @param codeEnd the address after the last translated command
+	 */
+	protected AotEngine(int memory[], int codeEnd) {
+		super(memory);
+		this.codeEnd = codeEnd;
+	}
+
+	/**
+	 * This method runs the block starting in the pc
+	 * @param pc
+	 * @param r the registers
+	 * @param m the memory
+	 * @return the address of the next command, or NO_BLOCK if no block starts in the pc
+	 */
+	protected abstract int runBlock(int pc, int r[], int m[]);
+
+	/**
+	 * This method is called by runBlock after the blocks whose last command writes the memory
+	 * @param store the block store (an address or BlockRuntime.STACK_PUSH)
+	 */
+	protected final void blockStored(int store) {
+		stored(BlockRuntime.storedPosition(registers, store));
+	}
+
+	public boolean isCompiled() {
+		return compiled;
+	}
+
+	@Override
+	protected void stored(int address) {
+		super.stored(address);
+		if (address>=0 && address<codeEnd)
+			compiled = false;
+	}
+
+	/**
+	 * This method executes the program stored in the memory, starting in the PC,
+	 * running the blocks when there is one for the current address
+	 */
+	@Override
+	public void run() {
+		int r[] = registers;
+		int mem[] = memory;
+		int pc = r[PC];
+		halt = false;
+		while (!halt) {
+			if (compiled) {
+				int next = runBlock(pc, r, mem);
+				if (next != NO_BLOCK) {
+					pc = next;
+					continue;
+				}
+			}
+			pc = step(pc);
+		}
+		r[PC] = pc;
+	}
+
+	/**
+	 * This method reads the memory written by StaticRecompiler.writeImage: the memory size and then,
+	 * for each run of words that are not zero, its address, its length and the words
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	public static int[] readImage(InputStream in) throws IOException {
+		DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+		try {
+			int memory[] = new int[data.readInt()];
+			int address;
+			while ((address = data.readInt()) >= 0) {
+				int length = data.readInt();
+				for (int i=0;i<length;i++)
+					memory[address+i] = data.readInt();
+			}
+			return memory;
+		} finally {
+			data.close();
+		}
+	}
+
+	/**
+	 * This method reads the memory from the IMAGE resource. It is called by the generated main
+	 * @return
+	 * @throws IOException if the resource is not found
+	 */
+	protected static int[] readImage() throws IOException {
+		InputStream in = AotEngine.class.getResourceAsStream("/"+IMAGE);
+		if (in == null)
+			throw new IOException("the resource "+IMAGE+" was not found");
+		return readImage(in);
+	}
+
+	/**
+	 * This method runs the program from the address 0, with the stack in the position,
+	 * and prints the registers and the memory at the end. It is called by the generated main
+	 * @param stackPosition
+	 * @param stackLimit the lowest position the stack can use
+	 */
+	protected void execute(int stackPosition, int stackLimit) {
+		registers[STACK_BOTTON] = stackPosition;
+		registers[STACK_TOP] = stackPosition;
+		registers[STACK_LIMIT] = stackLimit;
+		run();
+
+		for (int i=0;i<NUM_REGISTERS;i++) {
+			if (i == FLAGS)
+				System.out.println(REGISTER_NAMES[i]+": "+getBit(0)+" "+getBit(1));
+			else
+				System.out.println(REGISTER_NAMES[i]+": "+registers[i]);
+		}
+		StringBuilder words = new StringBuilder("Memory:");
+		for (int i=0;i<memory.length;i++)
+			words.append(' ').append(memory[i]);
+		System.out.println(words);
+	}
+}
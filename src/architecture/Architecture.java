@@ -7,15 +7,24 @@ import java.util.ArrayList;
 import java.util.Scanner;
 
 import components.Bus;
+import components.ComponentListener;
+import components.DenseStorage;
 import components.Demux;
 import components.Memory;
+import components.EventLog;
+import components.ListenerList;
 import components.Register;
+import components.RegisterFile;
+import components.Storage;
 import components.Ula;
 
 public class Architecture {
-	private boolean simulation; //this boolean indicates if the execution is done in simulation mode.
+	public static final int DEFAULT_MEMORY_SIZE = 128;
+	private final boolean simulation; //this boolean indicates if the execution is done in simulation mode.
 								//simulation mode shows the components' status after each instruction
 	private boolean halt;
+	private ExecutionMode mode;
+	private FunctionalEngine functionalEngine; //only used in the FUNCTIONAL and JIT modes
     private int memorySize;
 	private Bus extbus1;
 	private Bus intbus1;
@@ -31,17 +40,29 @@ public class Architecture {
 	private Register Flags;
     private Register StackTop;
     private Register StackBotton;
+    private Register StackLimit; //the lowest position the stack can use
+	private Register MAR; //memory address register, only used by the MAR microprograms
 	private Ula ula;
 	private Demux demux; //only for multiple register purposes
+	private DecodeCache decodeCache; //null when the commands are always fetched and decoded
 	
 	private ArrayList<String> commandsList;
-	private ArrayList<Register> registersList;
+	private ArrayList<Register> registersList; //views of the register file, for the simulation and the assembler
+	private RegisterFile registerFile;
+	private int registers[]; //the register file data, indexed by the registers ids
+	private boolean marMicroprograms; //the memory operands go through the MAR instead of the PC
+	private ArrayList<ComponentListener> listeners; //attached to the components, see addListener
+	private EventLog eventLog; //where the listened components write their events, null without listeners
+	private boolean breakRun; //runUntilBreak is running, the simulation mode shows nothing
+	private Recorder recorder; //null when the execution is not recorded
+	private int recordValues[]; //the registers, flags bits, halt, buses, demux and status memory given to the recorder
+	private Profiler profiler; //null when the commands are not profiled
 	
 	
 	/**
 	 * Instanciates all components in this architecture
 	 */
-	private void componentsInstances() {
+	private void componentsInstances(Storage storage) {
 		//don't forget the instantiation order
 		//buses -> registers -> ula -> memory
 		extbus1 = new Bus();
@@ -57,13 +78,15 @@ public class Architecture {
 		Flags = new Register(2, intbus2);
 		StackBotton = new Register("StackBotton", intbus2, intbus2);   
 		StackTop = new Register("StackTop", intbus2, intbus2);
+		StackLimit = new Register("StackLimit", intbus2, intbus2);
 		fillRegistersList();
+		MAR = new Register("MAR", extbus1, intbus2); //not in the registers list: the programs do not use it
 
 		ula = new Ula(intbus1, intbus2);
 
+		memorySize = storage.size();
 		statusMemory = new Memory(2, extbus1);
-		memorySize = 128;
-		memory = new Memory(memorySize, extbus1);
+		memory = new Memory(storage, extbus1);
 
 		demux = new Demux(); //this bus is used only for multiple register operations
 
@@ -87,27 +110,129 @@ public class Architecture {
 		registersList.add(Flags);
 		registersList.add(StackBotton);
 		registersList.add(StackTop);
+		registersList.add(StackLimit);
+
+		registerFile = new RegisterFile(registersList.size());
+		for (int i=0;i<registersList.size();i++)
+			registerFile.add(i, registersList.get(i));
+		registers = registerFile.getData();
 	}
 
 	/**
 	 * Constructor that instanciates all components according the architecture diagram
 	 */
 	public Architecture() {
-		componentsInstances();
-		
 		//by default, the execution method is never simulation mode
-		simulation = false;
+		this(false);
 	}
 
 	public Architecture(boolean sim) {
-		componentsInstances();
-		
 		//in this constructor we can set the simoualtion mode on or off
+		this(sim, ExecutionMode.MICROPROGRAM);
+	}
+
+	/**
+	 * This constructor also chooses how the commands are executed.
+	 * The simulation mode is only shown by the MICROPROGRAM mode
+	 * @param sim
+	 * @param mode
+	 */
+	public Architecture(boolean sim, ExecutionMode mode) {
+		this(sim, mode, DEFAULT_MEMORY_SIZE);
+	}
+
+	/**
+	 * This constructor also chooses the amount of memory positions
+	 * @param sim
+	 * @param mode
+	 * @param memorySize
+	 */
+	public Architecture(boolean sim, ExecutionMode mode, int memorySize) {
+		this(sim, mode, new DenseStorage(memorySize));
+	}
+
+	/**
+	 * This constructor also chooses how the memory positions are kept (for instance,
+	 * a PagedStorage for big address spaces, an OffHeapStorage to keep them out of the heap).
+	 * The FUNCTIONAL and JIT modes work directly in the memory array,
+	 * so they need a storage that keeps one
+	 * @param sim
+	 * @param mode
+	 * @param storage
+	 */
+	public Architecture(boolean sim, ExecutionMode mode, Storage storage) {
+		this(sim, mode, storage, null);
+	}
+
+	/**
+	 * This constructor also attaches a listener to the buses, the memories and the registers
+	 * (see ComponentListener). The events are made by the microsteps of the commands executed by
+	 * controlUnitEexec, runUntilBreak and replayTo, and sent to the listener after each command,
+	 * so the commands executed without them (the FUNCTIONAL and JIT modes and the decode cache)
+	 * and the components used out of these methods are not listened
+	 * @param sim
+	 * @param mode
+	 * @param storage
+	 * @param listener null for no listener
+	 */
+	public Architecture(boolean sim, ExecutionMode mode, Storage storage, ComponentListener listener) {
+		if (mode != ExecutionMode.MICROPROGRAM && storage.getArray() == null)
+			throw new IllegalArgumentException("the "+mode+" mode needs a memory kept in an array");
+		componentsInstances(storage);
+		listeners = new ArrayList<ComponentListener>();
+		if (listener != null)
+			addListener(listener);
 		simulation = sim;
+		this.mode = mode;
+		if (mode == ExecutionMode.FUNCTIONAL)
+			functionalEngine = new FunctionalEngine(memory.getDataList());
+		else if (mode == ExecutionMode.JIT)
+			functionalEngine = new JitEngine(memory.getDataList());
 	}
 
 
 
+	/**
+	 * This method attaches a listener to the buses, the memories and the registers
+	 * (see ComponentListener). The listeners get the events in the order they were added.
+	 * The switch that makes the components check for listeners is the same for the whole JVM
+	 * (see EventLog): while a listened architecture executes, in any thread, the architectures
+	 * without listeners also run the checks, and the switch is only turned off when one of them
+	 * starts executing with no listened architecture executing (ListenerBenchmark measures it).
+	 * The architectures that must run at full speed next to listened ones should run in other JVMs
+	 * @param listener
+	 */
+	public void addListener(ComponentListener listener) {
+		listeners.add(listener);
+		attachListeners();
+	}
+
+	/**
+	 * This method detaches a listener added by addListener
+	 * @param listener
+	 */
+	public void removeListener(ComponentListener listener) {
+		listeners.remove(listener);
+		attachListeners();
+	}
+
+	private void attachListeners() {
+		eventLog = null;
+		if (listeners.size() == 1)
+			eventLog = new EventLog(listeners.get(0));
+		else if (listeners.size() > 1)
+			eventLog = new EventLog(new ListenerList(listeners));
+		extbus1.setEventLog(eventLog);
+		intbus1.setEventLog(eventLog);
+		intbus2.setEventLog(eventLog);
+		for (Register r : registersList)
+			r.setEventLog(eventLog);
+		MAR.setEventLog(eventLog);
+		registerFile.setEventLog(eventLog);
+		memory.setEventLog(eventLog);
+		statusMemory.setEventLog(eventLog);
+	}
+
 	//getters
 	
 	protected Bus getExtbus1() {
@@ -162,14 +287,76 @@ public class Architecture {
 		return StackBotton;
 	}
 
+	protected Register getStackLimit() {
+		return StackLimit;
+	}
+
+	protected Register getMAR() {
+		return MAR;
+	}
+
 	protected Ula getUla() {
 		return ula;
 	}
 
+	public ExecutionMode getExecutionMode() {
+		return mode;
+	}
+
 	public ArrayList<String> getCommandsList() {
 		return commandsList;
 	}
 
+	protected DecodeCache getDecodeCache() {
+		return decodeCache;
+	}
+
+	public boolean getMarMicroprograms() {
+		return marMicroprograms;
+	}
+
+	/**
+	 * This method chooses the microprograms of the commands with memory operands or immediates
+	 * (addMemReg, addRegMem, addImmReg, subMemReg, subRegMem, subImmReg and moveMemReg).
+	 * The default ones carry the operand through the PC, saving the PC in the stack before and
+	 * getting it back after. When enabled, the operand goes through the MAR register, linking
+	 * the external bus to the intbus2, so the PC and the stack are not used:
+	 * the results are the same, with fewer microsteps and memory accesses
+	 * @param enabled
+	 */
+	public void setMarMicroprograms(boolean enabled) {
+		marMicroprograms = enabled;
+	}
+
+	/**
+	 * This method turns on or off the decode cache.
+	 * When it is on, each command is fetched and decoded only once: the next executions
+	 * use the operands already resolved, without the microprograms' bus traffic.
+	 * The cache is invalidated by the stores made through the memory bus
+	 * (the positions changed directly in the data list are not detected).
+	 * It can not be on while the commands are profiled, because the profiler counts the bus traffic
+	 * @param enabled
+	 * @throws IllegalStateException if the profiling is on (see setProfiling)
+	 */
+	public void setDecodeCache(boolean enabled) {
+		if (enabled && profiler != null)
+			throw new IllegalStateException("the decode cache can not be on while the commands are profiled");
+		if (enabled) {
+			decodeCache = new DecodeCache(memorySize);
+			memory.setStoreListener(decodeCache);
+		}
+		else {
+			decodeCache = null;
+			memory.setStoreListener(null);
+		}
+	}
+
+	/**
+	 * This method pops the data in the top of the stack into the intbus2.
+	 * The stack is empty when StackTop is in the StackBotton position.
+	 * The position popped is not cleared: it is written again by the next push
+	 * @return false if the stack is empty
+	 */
 	protected boolean getDataStackTop() {
 		boolean emptyStack = StackTop.getData() == StackBotton.getData();
 
@@ -182,26 +369,29 @@ public class Architecture {
 		StackTop.store();
 
 		// Saved data
-		int data = memory.getDataList()[position];
-
-		// Data removed from memory
-		memory.getDataList()[position]=0;
+		int data = memory.getData(position);
 
 		// Bus get the data
 		intbus2.put(data);
 		return true;
 	}
 
+	/**
+	 * This method pushes the data in the intbus2 into the stack.
+	 * The stack grows down from StackBotton and is full when StackTop
+	 * is below the StackLimit position
+	 * @return false if the stack is full (the data is not pushed)
+	 */
 	protected boolean setDataStackTop() {
-		boolean fullMemory = memory.getDataList()[StackTop.getData()] != 0;
+		boolean fullStack = StackTop.getData() < StackLimit.getData();
 
-		if (fullMemory) 
+		if (fullStack) 
 			return false;
 		
 		// Mem[StackTop] = dataBus
  		int position = StackTop.getData();
 		int data = intbus2.get();
-		memory.getDataList()[position] = data;
+		memory.setData(position, data);
 
 		// StackTop points to a position above 
 		intbus2.put(position-1);
@@ -692,6 +882,209 @@ public class Architecture {
 		pcMaisMais();
 	}
 
+	// MAR microprograms (see setMarMicroprograms)
+
+	/**
+	 * This method puts the memory operand in the intbus2, through the MAR:
+	 * the PC points to the operand address
+	 */
+	private void marReadMemory() {
+		PC.read();
+		memory.read();     // the address
+		memory.read();     // the data
+		MAR.store();
+		MAR.internalRead();
+	}
+
+	/**
+	 * This method puts the immediate operand in the intbus2, through the MAR:
+	 * the PC points to the operand
+	 */
+	private void marReadImmediate() {
+		PC.read();
+		memory.read();
+		MAR.store();
+		MAR.internalRead();
+	}
+
+	/**
+	 * This method writes the result in the intbus2 in the memory address pointed by the PC,
+	 * also keeping it in the IR, as the default microprograms do
+	 */
+	private void marStoreMemory() {
+		MAR.internalStore();
+		MAR.read();
+		IR.store();
+		PC.read();
+		memory.read();     // the address
+		memory.store();
+		MAR.read();
+		memory.store();
+	}
+
+	/**
+	 * This method reads the register pointed by the PC into the ula(reg), through the intbus1
+	 * @param reg
+	 */
+	private void marRegisterToUla(int reg) {
+		PC.read();
+		memory.read();
+		demux.setValue(extbus1.get());  //points to the correct register
+		registersInternalRead();
+		ula.store(reg);
+	}
+
+	/**
+	 * This method stores the ula(1) in the register pointed by the PC (already selected in the demux),
+	 * setting the flags
+	 */
+	private void marUlaToRegister() {
+		ula.internalRead(1);
+		setStatusFlags(intbus2.get());
+		ula.read(1);
+		demux.setValue(extbus1.get());  //points to the correct register
+		registersInternalStore();
+	}
+
+	protected void addMemRegMar() {
+		pcMaisMais();
+
+		// Ula(0) <- Mem
+		marReadMemory();
+		ula.internalStore(0);
+
+		pcMaisMais();
+
+		// Ula(1) <- REGA
+		marRegisterToUla(1);
+		ula.add();
+
+		// REGA <- UlaAdd
+		marUlaToRegister();
+
+		pcMaisMais();
+	}
+
+	protected void addRegMemMar() {
+		pcMaisMais();
+
+		// Ula(0) <- REGA
+		marRegisterToUla(0);
+
+		pcMaisMais();
+
+		// Ula(1) <- Mem
+		marReadMemory();
+		ula.internalStore(1);
+		ula.add();
+
+		// Mem <- UlaAdd
+		ula.internalRead(1);
+		setStatusFlags(intbus2.get());
+		marStoreMemory();
+
+		pcMaisMais();
+	}
+
+	protected void addImmRegMar() {
+		pcMaisMais();
+
+		// Ula(0) <- Imm
+		marReadImmediate();
+		ula.internalStore(0);
+
+		pcMaisMais();
+
+		// Ula(1) <- REGA
+		marRegisterToUla(1);
+		ula.add();
+
+		// REGA <- UlaAdd
+		marUlaToRegister();
+
+		pcMaisMais();
+	}
+
+	protected void subMemRegMar() {
+		pcMaisMais();
+
+		// Ula(0) <- Mem
+		marReadMemory();
+		ula.internalStore(0);
+
+		pcMaisMais();
+
+		// Ula(1) <- REGA
+		marRegisterToUla(1);
+		ula.sub();
+
+		// REGA <- UlaSub
+		marUlaToRegister();
+
+		pcMaisMais();
+	}
+
+	protected void subRegMemMar() {
+		pcMaisMais();
+
+		// Ula(0) <- REGA
+		marRegisterToUla(0);
+
+		pcMaisMais();
+
+		// Ula(1) <- Mem
+		marReadMemory();
+		ula.internalStore(1);
+		ula.sub();
+
+		// Mem <- UlaSub
+		ula.internalRead(1);
+		setStatusFlags(intbus2.get());
+		marStoreMemory();
+
+		pcMaisMais();
+	}
+
+	protected void subImmRegMar() {
+		pcMaisMais();
+
+		// Ula(0) <- Imm
+		marReadImmediate();
+		ula.internalStore(0);
+
+		pcMaisMais();
+
+		// Ula(1) <- REGA
+		marRegisterToUla(1);
+		ula.sub();
+
+		// REGA <- UlaSub
+		marUlaToRegister();
+
+		pcMaisMais();
+	}
+
+	public void moveMemRegMar() {
+		pcMaisMais();
+
+		// MAR <- Mem
+		PC.read();
+		memory.read();
+		memory.read();
+		MAR.store();
+
+		pcMaisMais();
+
+		// REGA <- MAR
+		PC.read();
+		memory.read();
+		demux.setValue(extbus1.get());  //points to the correct register
+		MAR.read();
+		registersStore();
+
+		pcMaisMais();
+	}
+
     /**
 	 * This method implements the microprogram for
 	 * 					inc 
@@ -951,18 +1344,12 @@ public class Architecture {
 
 	/**
 	 * This method is used after some ULA operations, setting the flags bits according the result.
+	 * The bits are computed only when the jumps (or anyone else) read them (see Register.setResult):
+	 * bit 0 is 1 when the result is zero and bit 1 is 1 when it is negative
 	 * @param result is the result of the operation
-	 * NOT TESTED!!!!!!!
 	 */
 	private void setStatusFlags(int result) {
-		Flags.setBit(0, 0);
-		Flags.setBit(1, 0);
-		if (result==0) { //bit 0 in flags must be 1 in this case
-			Flags.setBit(0,1);
-		}
-		if (result<0) { //bit 1 in flags must be 1 in this case
-			Flags.setBit(1,1);
-		}
+		Flags.setResult(result);
 	}
 	
 	public ArrayList<Register> getRegistersList() {
@@ -974,7 +1361,7 @@ public class Architecture {
 	 * The register id must be in the demux bus
 	 */
 	private void registersRead() {
-		registersList.get(demux.getValue()).read();
+		registerFile.read(demux.getValue());
 	}
 	
 	/**
@@ -982,7 +1369,7 @@ public class Architecture {
 	 * The register id must be in the demux bus
 	 */
 	private void registersInternalRead() {
-		registersList.get(demux.getValue()).internalRead();;
+		registerFile.internalRead(demux.getValue());
 	}
 	
 	/**
@@ -990,7 +1377,7 @@ public class Architecture {
 	 * The register id must be in the demux bus
 	 */
 	private void registersStore() {
-		registersList.get(demux.getValue()).store();
+		registerFile.store(demux.getValue());
 	}
 	
 	/**
@@ -998,7 +1385,7 @@ public class Architecture {
 	 * The register id must be in the demux bus
 	 */
 	private void registersInternalStore() {
-		registersList.get(demux.getValue()).internalStore();
+		registerFile.internalStore(demux.getValue());
 	}
 
 
@@ -1027,33 +1414,432 @@ public class Architecture {
 				i++;
 			}
 			else { 
-				// Guarda a posição da Stack e a inicializa
+				// Guarda a posição da Stack e a inicializa, até o fim do programa
 				position_Stack = Integer.parseInt(linha);
-				initializeStack(position_Stack);
+				initializeStack(position_Stack, i);
 			}
 		}
 
 		br.close();
 	}
 
-	protected void initializeStack(int position) {	
+	/**
+	 * This method maps a binary executable (.dxb, see ExecutableFile)
+	 * and copies its sections into the memory at once
+	 * @param filename
+	 * @throws IOException
+	 */
+	public void readBinaryExec(String filename) throws IOException {
+		loadExecutable(ExecutableFile.map(filename));
+	}
+
+	/**
+	 * This method copies the executable sections into the memory,
+	 * sets the PC in the entry point and initializes the stack.
+	 * The executable can be read from a file or made in memory by Assembler.assemble
+	 * @param exec
+	 * @throws IOException if the program needs more memory than this architecture has
+	 */
+	public void loadExecutable(ExecutableFile exec) throws IOException {
+		if (exec.getMemorySize() > memorySize)
+			throw new IOException("the program needs "+exec.getMemorySize()+" memory positions, but there are "+memorySize);
+		exec.load(memory.getStorage());
+		if (decodeCache != null)
+			decodeCache.clear(); //the memory was written without the bus
+		PC.setData(exec.getEntryPoint());
+		int codeEnd = 0;
+		for (ExecutableFile.Section section : exec.getSections()) {
+			if (section.getType() == ExecutableFile.SECTION_CODE)
+				codeEnd = Math.max(codeEnd, section.getAddress()+section.getLength());
+		}
+		initializeStack(exec.getStackBase(), codeEnd);
+	}
+
+	/**
+	 * This method initializes an empty stack in the position, that can grow down to the position 0
+	 * @param position
+	 */
+	protected void initializeStack(int position) {
+		initializeStack(position, 0);
+	}
+
+	/**
+	 * This method initializes an empty stack in the position, that can grow down to the limit
+	 * (usually the position after the program)
+	 * @param position
+	 * @param limit the lowest position the stack can use
+	 */
+	protected void initializeStack(int position, int limit) {
+		intbus2.put(limit);
+		StackLimit.store();
 		intbus2.put(position);
 		StackTop.store();
 		StackBotton.store();
 	}
-	
+
+	/**
+	 * This method copies the whole state of the architecture (see MachineState).
+	 * The memory positions are copied at once from the storage
+	 * @return
+	 */
+	public MachineState snapshot() {
+		int flags[] = {Flags.getBit(0), Flags.getBit(1)};
+		int words[] = new int[memorySize];
+		memory.getStorage().read(0, words, 0, memorySize);
+		int status[] = new int[statusMemory.getSize()];
+		statusMemory.getStorage().read(0, status, 0, status.length);
+		int buses[] = {extbus1.get(), intbus1.get(), intbus2.get()};
+		return new MachineState(registers.clone(), flags, words, status, buses, demux.getValue(), halt);
+	}
+
+	/**
+	 * This method creates a new architecture in the same state of this one, with the same
+	 * execution mode, decode cache and microprograms options and listeners. The memory is forked from this one (see Storage.fork):
+	 * with a PagedStorage the pages are shared copy-on-write, so the new architecture only
+	 * copies the pages it writes, and the decoded commands of the decode cache are shared the same way.
+	 * The other storages copy all the positions, and the FUNCTIONAL
+	 * and JIT modes cannot use a PagedStorage (they need the memory in an array), so only the
+	 * MICROPROGRAM mode forks without copying the memory. Both architectures can then run independently
+	 * @return
+	 */
+	public Architecture fork() {
+		Architecture fork = new Architecture(simulation, mode, memory.getStorage().fork());
+		if (decodeCache != null) { //the decoded commands are shared copy-on-write too
+			fork.decodeCache = decodeCache.fork();
+			fork.memory.setStoreListener(fork.decodeCache);
+		}
+		if (marMicroprograms)
+			fork.setMarMicroprograms(true);
+		System.arraycopy(registers, 0, fork.registers, 0, registers.length);
+		fork.Flags.setBit(0, Flags.getBit(0));
+		fork.Flags.setBit(1, Flags.getBit(1));
+		for (int i=0;i<statusMemory.getSize();i++)
+			fork.statusMemory.setData(i, statusMemory.getData(i));
+		fork.extbus1.put(extbus1.get());
+		fork.intbus1.put(intbus1.get());
+		fork.intbus2.put(intbus2.get());
+		fork.demux.setValue(demux.getValue());
+		fork.halt = halt;
+		for (ComponentListener listener : listeners) {
+			if (profiler == null || listener != profiler.getListener()) //the fork is not profiled
+				fork.addListener(listener);
+		}
+		return fork;
+	}
+
+	/**
+	 * This method brings the architecture back to a state made by snapshot().
+	 * The memory positions are written at once into the storage, without the bus,
+	 * so the decoded commands are dropped. A PagedStorage only copies the shared pages
+	 * the state changes, so restoring a fork keeps sharing the pages it did not change. The engines check the memory when they run again.
+	 * A recording starts again from the state restored
+	 * @param state
+	 * @throws IllegalArgumentException if the state was taken from a memory of other size
+	 */
+	public void restore(MachineState state) {
+		restoreState(state);
+		if (recorder != null)
+			recorder.start(snapshot(), recordValues()); //the recording goes on from the state restored
+	}
+
+	private void restoreState(MachineState state) {
+		if (state.getMemorySize() != memorySize)
+			throw new IllegalArgumentException("the state has "+state.getMemorySize()+" memory positions, but there are "+memorySize);
+		System.arraycopy(state.getRegisters(), 0, registers, 0, registers.length);
+		Flags.setBit(0, state.getFlags()[0]);
+		Flags.setBit(1, state.getFlags()[1]);
+		memory.getStorage().write(0, state.getMemory(), 0, memorySize);
+		int status[] = state.getStatusMemory();
+		statusMemory.getStorage().write(0, status, 0, status.length);
+		extbus1.put(state.getBuses()[0]);
+		intbus1.put(state.getBuses()[1]);
+		intbus2.put(state.getBuses()[2]);
+		demux.setValue(state.getDemux());
+		halt = state.isHalted();
+		if (decodeCache != null)
+			decodeCache.clear();
+	}
+
 	/**
 	 * This method executes a program that is stored in the memory
 	 */
 	public void controlUnitEexec() {
+		if (functionalEngine != null) {
+			functionalExec();
+			return;
+		}
 		halt = false;
-		while (!halt) {
+		boolean listened = startListening();
+		try {
+			while (!halt)
+				executeCommand();
+		} finally {
+			stopListening(listened);
+		}
+		if (profiler != null)
+			System.out.print(profiler.report());
+	}
+
+	/**
+	 * This method executes the program from the PC until a breakpoint, a watchpoint
+	 * or a register condition is hit (see Breakpoints) or the program ends.
+	 * The command in the PC is always executed, so calling it again goes on after the break.
+	 * The memory is watched through a storage that wraps its own only while the run goes on.
+	 * The simulation mode does not show the commands run here
+	 * @param breakpoints
+	 * @return true if it stopped at a break, false if the program ended
+	 * @throws IllegalStateException out of the MICROPROGRAM mode, where there are no commands steps
+	 */
+	public boolean runUntilBreak(Breakpoints breakpoints) {
+		if (functionalEngine != null)
+			throw new IllegalStateException("the breakpoints are only checked in the MICROPROGRAM mode");
+		breakRun = true;
+		Storage storage = memory.getStorage();
+		memory.setStorage(breakpoints.start(storage));
+		halt = false;
+		boolean listened = startListening();
+		try {
+			while (!halt) {
+				breakpoints.beforeCommand(registers);
+				if (decodeCache != null && decodeCache.contains(PC.getData()))
+					breakpoints.commandRead(PC.getData(), decodeCache.getLength(PC.getData()));
+				executeCommand();
+				if (!halt && breakpoints.afterCommand(PC.getData(), registers))
+					return true;
+			}
+			return false;
+		} finally {
+			breakRun = false;
+			memory.setStorage(storage);
+			stopListening(listened);
+		}
+	}
+
+	/**
+	 * This method executes the command in the PC, counting it in the profiler
+	 * and the recorder when they are on
+	 */
+	private void executeCommand() {
+		if (profiler != null) {
+			int pc = PC.getData();
+			fetchAndExecute();
+			eventLog.flush(); //the profiler gets the data put in the buses as a listener
+			profiler.count(pc);
+		}
+		else
+			fetchAndExecute();
+		if (recorder != null && recorder.commandExecuted(recordValues()))
+			recorder.checkpoint(snapshot());
+		if (EventLog.isListening() && eventLog != null)
+			eventLog.flush();
+	}
+
+	/**
+	 * This method makes the components write their events while a listened
+	 * architecture executes, or stops it for an architecture without listeners (see EventLog)
+	 * @return true if the architecture is listened, to be given to stopListening
+	 */
+	private boolean startListening() {
+		if (eventLog == null) {
+			if (EventLog.isListening())
+				EventLog.stopListeningIfIdle();
+			return false;
+		}
+		eventLog.clear(); //the components used out of the executions are not listened
+		EventLog.startListening();
+		return true;
+	}
+
+	private void stopListening(boolean listened) {
+		if (listened)
+			EventLog.stopListening();
+	}
+
+	/**
+	 * This method fetches and executes the command in the PC,
+	 * using the decode cache when it has the command
+	 */
+	private void fetchAndExecute() {
+		if (decodeCache != null && decodeCache.contains(PC.getData())) {
+			fetchDecoded();
+			executeDecoded();
+		}
+		else {
 			fetch();
-			decodeExecute();
+			if (decodeCache != null && decodeCache.contains(PC.getData()))
+				executeDecoded(); //the fetch has just filled the cache
+			else
+				decodeExecute();
+		}
+	}
+
+	/**
+	 * This method turns on or off the profiling of the commands executed: for each address,
+	 * how many commands were executed and how many microsteps they took (see Profiler).
+	 * The profiler counts the microsteps as a listener of the components (see addListener).
+	 * controlUnitEexec prints the report when the program ends.
+	 * The commands executed by the decode cache put almost nothing in the buses,
+	 * so they can not be profiled: the cache must be off
+	 * @param profiling
+	 * @throws IllegalStateException out of the MICROPROGRAM mode, where there are no commands steps,
+	 * or with the decode cache on (see setDecodeCache)
+	 */
+	public void setProfiling(boolean profiling) {
+		if (profiling && functionalEngine != null)
+			throw new IllegalStateException("the commands are only profiled in the MICROPROGRAM mode");
+		if (profiling && decodeCache != null)
+			throw new IllegalStateException("the commands are not profiled with the decode cache on");
+		if (!profiling && profiler != null) {
+			removeListener(profiler.getListener());
+			profiler = null;
+		}
+		else if (profiling && profiler == null) {
+			profiler = new Profiler(memorySize);
+			addListener(profiler.getListener());
+		}
+	}
+
+	public Profiler getProfiler() {
+		return profiler;
+	}
+
+	/**
+	 * This method starts recording the commands executed (see Recorder), from the current state.
+	 * The memory positions are written through the recorder while it records
+	 * @param interval commands between the checkpoints
+	 * @param budget amount of int words the recording can keep
+	 * @return
+	 * @throws IllegalStateException out of the MICROPROGRAM mode, where there are no commands steps
+	 */
+	public Recorder startRecording(int interval, int budget) {
+		if (functionalEngine != null)
+			throw new IllegalStateException("the commands are only recorded in the MICROPROGRAM mode");
+		stopRecording();
+		recordValues = new int[registers.length+6+statusMemory.getSize()];
+		int checkpointWords = memorySize + statusMemory.getSize() + recordValues.length + 4;
+		recorder = new Recorder(interval, budget, checkpointWords);
+		memory.setStorage(recorder.wrap(memory.getStorage()));
+		recorder.start(snapshot(), recordValues());
+		return recorder;
+	}
+
+	public void stopRecording() {
+		if (recorder != null) {
+			memory.setStorage(recorder.getStorage());
+			recorder = null;
 		}
 	}
+
+	public Recorder getRecorder() {
+		return recorder;
+	}
+
+	/**
+	 * This method returns the values logged by the recorder after each command: the registers,
+	 * the flags bits, the halt, the buses, the demux and the status memory positions.
+	 * Only the ones that changed take room in the log
+	 * @return
+	 */
+	private int[] recordValues() {
+		int n = registers.length;
+		System.arraycopy(registers, 0, recordValues, 0, n);
+		recordValues[n] = Flags.getBit(0) | Flags.getBit(1) << 1;
+		recordValues[n+1] = halt ? 1 : 0;
+		recordValues[n+2] = extbus1.get();
+		recordValues[n+3] = intbus1.get();
+		recordValues[n+4] = intbus2.get();
+		recordValues[n+5] = demux.getValue();
+		for (int i=0;i<statusMemory.getSize();i++)
+			recordValues[n+6+i] = statusMemory.getData(i);
+		return recordValues;
+	}
+
+	/**
+	 * This method brings the architecture to the values of recordValues()
+	 * @param values
+	 */
+	private void setRecordValues(int values[]) {
+		int n = registers.length;
+		System.arraycopy(values, 0, registers, 0, n);
+		Flags.setBit(0, values[n] & 1);
+		Flags.setBit(1, values[n] >> 1);
+		halt = values[n+1] != 0;
+		extbus1.put(values[n+2]);
+		intbus1.put(values[n+3]);
+		intbus2.put(values[n+4]);
+		demux.setValue(values[n+5]);
+		for (int i=0;i<statusMemory.getSize();i++)
+			statusMemory.setData(i, values[n+6+i]);
+	}
+
+	/**
+	 * This method brings the architecture to the state after a command count of the recording.
+	 * Going back, the nearest checkpoint is restored and the log is written from there,
+	 * with no execution; the commands after the count are dropped from the recording.
+	 * Going forward, the commands are executed (and recorded) until the count or the end of the program
+	 * @param count
+	 * @throws IllegalStateException if the architecture is not recording
+	 * @throws IllegalArgumentException if the count was already dropped from the recording
+	 */
+	public void replayTo(long count) {
+		if (recorder == null)
+			throw new IllegalStateException("the architecture is not recording");
+		if (count >= recorder.getCount()) {
+			boolean listened = startListening();
+			try {
+				while (recorder.getCount() < count && !halt)
+					executeCommand();
+			} finally {
+				stopListening(listened);
+			}
+			return;
+		}
+		recorder.setPaused(true);
+		try {
+			restoreState(recorder.stateFor(count));
+			int values[] = recordValues();
+			recorder.replay(count, values);
+			setRecordValues(values);
+		} finally {
+			recorder.setPaused(false);
+		}
+		if (decodeCache != null)
+			decodeCache.clear(); //the log was written directly in the storage
+	}
+
+	/**
+	 * This method brings the architecture back to the state before the last command recorded
+	 * @return false if there is no command recorded before
+	 */
+	public boolean stepBack() {
+		if (recorder == null || recorder.getCount() == 0 || recorder.getCount()-1 < recorder.getFirstCount())
+			return false;
+		replayTo(recorder.getCount()-1);
+		return true;
+	}
 	
 
+	/**
+	 * This method executes the program in the FUNCTIONAL and JIT modes.
+	 * The registers and flags are copied to the engine arrays, the program runs
+	 * there and, in the end, the results are copied back to the registers
+	 */
+	private void functionalExec() {
+		int engineRegisters[] = functionalEngine.getRegisters();
+		System.arraycopy(registers, 0, engineRegisters, 0, registers.length);
+		functionalEngine.setBit(0, Flags.getBit(0));
+		functionalEngine.setBit(1, Flags.getBit(1));
+
+		functionalEngine.run();
+
+		System.arraycopy(engineRegisters, 0, registers, 0, registers.length);
+		Flags.setBit(0, functionalEngine.getBit(0));
+		Flags.setBit(1, functionalEngine.getBit(1));
+		if (decodeCache != null)
+			decodeCache.clear(); //the engine writes the memory directly
+		halt = true;
+	}
+
 	/**
 	 * This method implements The decode proccess,
 	 * that is to find the correct operation do be executed
@@ -1063,20 +1849,21 @@ public class Architecture {
 	private void decodeExecute() {   
 		IR.internalRead(); //the instruction is in the internalbus2
 		int command = extbus1.get();
-		simulationDecodeExecuteBefore(command);
+		if (simulation && !breakRun)
+			simulationDecodeExecuteBefore(command);
 
 		switch (command) {
 			case 0: addRegReg(); break;
-			case 1: addMemReg(); break;
-			case 2: addRegMem(); break;
-			case 3: addImmReg(); break;
+			case 1: if (marMicroprograms) addMemRegMar(); else addMemReg(); break;
+			case 2: if (marMicroprograms) addRegMemMar(); else addRegMem(); break;
+			case 3: if (marMicroprograms) addImmRegMar(); else addImmReg(); break;
 
 			case 4: subRegReg(); break;
-			case 5: subMemReg(); break;
-			case 6: subRegMem(); break;
-			case 7: subImmReg(); break;
+			case 5: if (marMicroprograms) subMemRegMar(); else subMemReg(); break;
+			case 6: if (marMicroprograms) subRegMemMar(); else subRegMem(); break;
+			case 7: if (marMicroprograms) subImmRegMar(); else subImmReg(); break;
 
-			case 8:  moveMemReg(); break;
+			case 8:  if (marMicroprograms) moveMemRegMar(); else moveMemReg(); break;
 			case 9:  moveRegMem(); break;
 			case 10: moveRegReg(); break;
 			case 11: moveImmReg(); break;
@@ -1098,10 +1885,182 @@ public class Architecture {
 			default: halt = true; break;
 		}
 		
-		if (simulation)
+		if (simulation && !breakRun)
+			simulationDecodeExecuteAfter();
+	}
+
+	/**
+	 * This method executes the command decoded in the cache for the PC position.
+	 * It produces the same results of the microprograms in the registers, flags,
+	 * memory and stack, but uses the operands already resolved by the decode cache
+	 * instead of reading them again through the buses.
+	 * The operands are expected to be the general purpose registers, as the assembler generates
+	 */
+	private void executeDecoded() {
+		int pc = PC.getData();
+		int command = decodeCache.getCommand(pc);
+		int op1 = decodeCache.getOperand(pc, 0);
+		int op2 = decodeCache.getOperand(pc, 1);
+		int op3 = decodeCache.getOperand(pc, 2);
+		int result;
+		if (simulation && !breakRun)
+			simulationDecodeExecuteBefore(command);
+
+		switch (command) {
+			case 0: //addRegReg
+				result = registerData(op1) + registerData(op2);
+				setStatusFlags(result);
+				registers[op2] = result;
+				PC.setData(pc+3);
+				break;
+			case 1: //addMemReg
+				result = memoryData(op1) + registerData(op2);
+				setStatusFlags(result);
+				registers[op2] = result;
+				PC.setData(pc+3);
+				break;
+			case 2: //addRegMem
+				result = registerData(op1) + memoryData(op2);
+				setStatusFlags(result);
+				IR.setData(result);
+				memoryStore(op2, result);
+				PC.setData(pc+3);
+				break;
+			case 3: //addImmReg
+				result = op1 + registerData(op2);
+				setStatusFlags(result);
+				registers[op2] = result;
+				PC.setData(pc+3);
+				break;
+
+			case 4: //subRegReg
+				result = registerData(op1) - registerData(op2);
+				setStatusFlags(result);
+				registers[op2] = result;
+				PC.setData(pc+3);
+				break;
+			case 5: //subMemReg
+				result = memoryData(op1) - registerData(op2);
+				setStatusFlags(result);
+				registers[op2] = result;
+				PC.setData(pc+3);
+				break;
+			case 6: //subRegMem
+				result = registerData(op1) - memoryData(op2);
+				setStatusFlags(result);
+				IR.setData(result);
+				memoryStore(op2, result);
+				PC.setData(pc+3);
+				break;
+			case 7: //subImmReg
+				result = op1 - registerData(op2);
+				setStatusFlags(result);
+				registers[op2] = result;
+				PC.setData(pc+3);
+				break;
+
+			case 8: //moveMemReg
+				registers[op2] = memoryData(op1);
+				PC.setData(pc+3);
+				break;
+			case 9: //moveRegMem
+				memoryStore(op2, registerData(op1));
+				PC.setData(pc+3);
+				break;
+			case 10: //moveRegReg
+				registers[op2] = registerData(op1);
+				PC.setData(pc+3);
+				break;
+			case 11: //moveImmReg
+				IR.setData(op1);
+				registers[op2] = op1;
+				PC.setData(pc+3);
+				break;
+
+			case 12: //inc
+				result = registerData(op1) + 1;
+				setStatusFlags(result);
+				registers[op1] = result;
+				PC.setData(pc+2);
+				break;
+
+			case 13: //jmp
+				PC.setData(op1);
+				break;
+			case 14: //jz
+				PC.setData(Flags.getBit(0)==1 ? op1 : pc+2);
+				break;
+			case 15: //jn
+				PC.setData(Flags.getBit(1)==1 ? op1 : pc+2);
+				break;
+
+			case 16: //jeq
+				setStatusFlags(registerData(op1) - registerData(op2));
+				PC.setData(Flags.getBit(0)==1 ? op3 : pc+4);
+				break;
+			case 17: //jneq
+				setStatusFlags(registerData(op1) - registerData(op2));
+				PC.setData(Flags.getBit(0)!=1 ? op3 : pc+4);
+				break;
+			case 18: //jgt
+				setStatusFlags(registerData(op1) - registerData(op2));
+				PC.setData(Flags.getBit(0)==0 && Flags.getBit(1)==0 ? op3 : pc+4);
+				break;
+			case 19: //jlw
+				setStatusFlags(registerData(op1) - registerData(op2));
+				PC.setData(Flags.getBit(1)==1 ? op3 : pc+4);
+				break;
+
+			case 20: //call
+				intbus2.put(pc+2); //the return address
+				setDataStackTop();
+				PC.setData(op1);
+				break;
+			case 21: //ret
+				if (StackTop.getData() == StackBotton.getData())
+					PC.setData(pc+1);
+				else {
+					getDataStackTop();
+					PC.setData(intbus2.get());
+				}
+				break;
+
+			default: halt = true; break;
+		}
+
+		if (simulation && !breakRun)
 			simulationDecodeExecuteAfter();
 	}
 
+	private int registerData(int id) {
+		return registers[id];
+	}
+
+	/**
+	 * This method returns the data in the address, behaving like memory.read():
+	 * addresses out of the memory are kept as they are
+	 * @param address
+	 * @return
+	 */
+	private int memoryData(int address) {
+		if (address>=0 && address<memorySize)
+			return memory.getData(address);
+		return address;
+	}
+
+	/**
+	 * This method stores the data in the address through the memory bus,
+	 * so the decode cache can drop the commands stored there
+	 * @param address
+	 * @param data
+	 */
+	private void memoryStore(int address, int data) {
+		extbus1.put(address);
+		memory.store();
+		extbus1.put(data);
+		memory.store();
+	}
+
 	/**
 	 * This method is used to show the components status in simulation conditions
 	 * NOT TESTED
@@ -1124,18 +2083,18 @@ public class Architecture {
 			instruction = "END";
 			
 		if (hasOperands(instruction)) {
-			parameter = memory.getDataList()[PC.getData()+1];
+			parameter = memory.getData(PC.getData()+1);
 
 			if (hasOneOperand(command)) 
 				System.out.println("Instruction: "+instruction+" "+parameter);
 			else {
-				parameter2 = memory.getDataList()[PC.getData()+2];
+				parameter2 = memory.getData(PC.getData()+2);
 
 				if (hasTwoOperands(command)) 
 					System.out.println("Instruction: "+instruction+" "+parameter+
 																   " "+parameter2);
 				else {
-					parameter3 = memory.getDataList()[PC.getData()+3];
+					parameter3 = memory.getData(PC.getData()+3);
 					System.out.println("Instruction: "+instruction+" "+parameter+
 																   " "+parameter2+
 																   " "+parameter3);
@@ -1174,6 +2133,17 @@ public class Architecture {
 		PC.read();
 		memory.read();
 		IR.store();
+		if (decodeCache != null && PC.getData()>=0 && PC.getData()<memorySize)
+			decodeCache.decode(PC.getData(), memory.getStorage());
+		simulationFetch();
+	}
+
+	/**
+	 * This method replaces the fetch when the command in PC was already decoded:
+	 * IR receives the command without reading the memory
+	 */
+	private void fetchDecoded() {
+		IR.setData(decodeCache.getCommand(PC.getData()));
 		simulationFetch();
 	}
 
@@ -1182,7 +2152,7 @@ public class Architecture {
 	 * NOT TESTED!!!!!!!!!
 	 */
 	private void simulationFetch() {
-		if (simulation) {
+		if (simulation && !breakRun) {
 			System.out.println("-------Fetch Phase------");
 			System.out.println("PC: "+PC.getData());
 			System.out.println("IR: "+IR.getData());
@@ -1228,9 +2198,32 @@ public class Architecture {
 		return memorySize;
 	}
 	
+	/**
+	 * Usage: java architecture.Architecture [breakpoint addresses]
+	 * With no addresses, the program runs in the simulation mode, one command at a time.
+	 * With addresses, it runs until each breakpoint and shows the registers there
+	 * @param args
+	 * @throws IOException
+	 */
 	public static void main(String[] args) throws IOException {
-		Architecture arch = new Architecture(true);
+		if (args.length == 0) {
+			Architecture arch = new Architecture(true);
+			arch.readExec("program");
+			arch.controlUnitEexec();
+			return;
+		}
+		Architecture arch = new Architecture();
 		arch.readExec("program");
-		arch.controlUnitEexec();
+		Breakpoints breakpoints = new Breakpoints(arch.getMemorySize());
+		for (String address : args)
+			breakpoints.setBreakpoint(Integer.parseInt(address), true);
+		Scanner entrada = new Scanner(System.in);
+		while (arch.runUntilBreak(breakpoints)) {
+			System.out.println("----------Breakpoint at "+breakpoints.getHitPosition()+"--------------");
+			for (Register r:arch.registersList)
+				System.out.println(r.getRegisterName()+": "+r.getData());
+			System.out.println("Press <Enter>");
+			entrada.nextLine();
+		}
 	}
 }
@@ -0,0 +1,51 @@
+package architecture;
+
+/**
+ * This class has the methods called by the compiled blocks (JitEngine block classes
+ * and StaticRecompiler programs) for the commands that are not a few array accesses.
+ * It has no dependency, so it can be packaged with the recompiled programs.
+ */
+public final class BlockRuntime {
+
+	//what the last command of a block stores in the memory
+	public static final int NO_STORE = -1;
+	public static final int STACK_PUSH = -2;
+
+	private BlockRuntime() {
+	}
+
+	/**
+	 * This method returns the memory position written by the last command of a block
+	 * @param r the registers, after the block
+	 * @param store the block store (an address or STACK_PUSH)
+	 * @return
+	 */
+	public static int storedPosition(int r[], int store) {
+		if (store == STACK_PUSH)
+			return r[FunctionalEngine.STACK_TOP]+1;
+		return store;
+	}
+
+	public static int memoryRead(int m[], int address) {
+		if (address>=0 && address<m.length)
+			return m[address];
+		return address;
+	}
+
+	public static int call(int r[], int m[], int target, int returnAddress) {
+		int top = FunctionalEngine.STACK_TOP;
+		if (r[top] >= r[FunctionalEngine.STACK_LIMIT]) { //the stack is not full
+			m[r[top]] = returnAddress;
+			r[top]--;
+		}
+		return target;
+	}
+
+	public static int ret(int r[], int m[], int next) {
+		int top = FunctionalEngine.STACK_TOP;
+		if (r[top] == r[FunctionalEngine.STACK_BOTTON])
+			return next;
+		r[top]++;
+		return m[r[top]];
+	}
+}
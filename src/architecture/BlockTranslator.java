@@ -0,0 +1,333 @@
+package architecture;
+
+/**
+ * This class translates the basic blocks of a program into JVM bytecodes.
+ * A basic block starts in a leader (a jump/call/ret target or the command after them) and ends in the
+ * next jump, call, ret, memory store or leader. The register ids, addresses and immediates become
+ * constants, and the bytecodes return the address of the next command.
+ * It is used by the JitEngine, for the hot blocks, and by the StaticRecompiler, for all of them.
+ */
+public class BlockTranslator {
+
+	public static final int MAX_BLOCK_COMMANDS = 64;
+
+	private static final String RUNTIME = "architecture/BlockRuntime";
+
+	private int memory[];
+	private int store;
+	private boolean fallsThrough;
+
+	public BlockTranslator(int memory[]) {
+		this.memory = memory;
+	}
+
+	/**
+	 * This method returns what the last command of the last translated block stores
+	 * (an address, BlockRuntime.STACK_PUSH or BlockRuntime.NO_STORE)
+	 * @return
+	 */
+	public int getStore() {
+		return store;
+	}
+
+	/**
+	 * This method returns true if the last translated block continues in the address after it,
+	 * that is, it does not end in a jump, call or ret
+	 * @return
+	 */
+	public boolean fallsThrough() {
+		return fallsThrough;
+	}
+
+	/**
+	 * This method scans the commands from the address, marking as leaders
+	 * all the jump and call targets and the commands after them
+	 * @param mem
+	 * @param leaders
+	 * @param address
+	 */
+	public static void findLeaders(int mem[], boolean leaders[], int address) {
+		int pc = address;
+		if (pc>=0 && pc<mem.length)
+			leaders[pc] = true;
+		while (pc>=0 && pc<mem.length && mem[pc]>=0 && mem[pc]<=21) {
+			int command = mem[pc];
+			int length = DecodeCache.lengthOf(command);
+			if (pc+length > mem.length)
+				break;
+			if (command>=13 && command<=20) { //jumps and call: the target is the last operand
+				int target = mem[pc+length-1];
+				if (target>=0 && target<mem.length)
+					leaders[target] = true;
+			}
+			if (command>=13 && pc+length<mem.length)
+				leaders[pc+length] = true;
+			pc += length;
+		}
+	}
+
+	/**
+	 * This method writes the bytecodes of the block starting in the address.
+	 * Locals: 1 is the registers array, 2 is the memory, 3 keeps results
+	 * @param code
+	 * @param start
+	 * @param leaders
+	 * @return the address after the block (start if there is no command to translate)
+	 */
+	public int translate(ClassFileWriter.Code code, int start, boolean leaders[]) {
+		int mem[] = memory;
+		int pc = start;
+		int commands = 0;
+		boolean returned = false;
+		store = BlockRuntime.NO_STORE;
+
+		while (!returned && store == BlockRuntime.NO_STORE && commands < MAX_BLOCK_COMMANDS && pc>=0 && pc<mem.length) {
+			int command = mem[pc];
+			if (command<0 || command>21)
+				break; //the end of the program is left to the step
+			int length = DecodeCache.lengthOf(command);
+			if (pc+length > mem.length || (pc != start && leaders[pc]))
+				break;
+			returned = translateCommand(code, pc, command);
+			if (command == 2 || command == 6 || command == 9)
+				store = mem[pc+2];
+			else if (command == 20)
+				store = BlockRuntime.STACK_PUSH;
+			pc += length;
+			commands++;
+		}
+		fallsThrough = !returned;
+		if (commands > 0 && !returned) {
+			code.iconst(pc);
+			code.op(ClassFileWriter.IRETURN);
+		}
+		return pc;
+	}
+
+	/**
+	 * This method writes the bytecodes of a command
+	 * @param code
+	 * @param pc
+	 * @param command
+	 * @return true if the bytecodes return the next address (jumps, call and ret)
+	 */
+	private boolean translateCommand(ClassFileWriter.Code code, int pc, int command) {
+		int mem[] = memory;
+		int length = DecodeCache.lengthOf(command);
+		int op1 = length>1 ? mem[pc+1] : 0;
+		int op2 = length>2 ? mem[pc+2] : 0;
+		int op3 = length>3 ? mem[pc+3] : 0;
+
+		switch (command) {
+			case 0: //addRegReg
+				loadRegister(code, op1);
+				loadRegister(code, op2);
+				code.op(ClassFileWriter.IADD);
+				storeResult(code, op2);
+				return false;
+			case 1: //addMemReg
+				loadMemory(code, op1);
+				loadRegister(code, op2);
+				code.op(ClassFileWriter.IADD);
+				storeResult(code, op2);
+				return false;
+			case 2: //addRegMem
+				loadRegister(code, op1);
+				loadMemory(code, op2);
+				code.op(ClassFileWriter.IADD);
+				storeMemoryResult(code, op2);
+				return false;
+			case 3: //addImmReg
+				code.iconst(op1);
+				loadRegister(code, op2);
+				code.op(ClassFileWriter.IADD);
+				storeResult(code, op2);
+				return false;
+
+			case 4: //subRegReg
+				loadRegister(code, op1);
+				loadRegister(code, op2);
+				code.op(ClassFileWriter.ISUB);
+				storeResult(code, op2);
+				return false;
+			case 5: //subMemReg
+				loadMemory(code, op1);
+				loadRegister(code, op2);
+				code.op(ClassFileWriter.ISUB);
+				storeResult(code, op2);
+				return false;
+			case 6: //subRegMem
+				loadRegister(code, op1);
+				loadMemory(code, op2);
+				code.op(ClassFileWriter.ISUB);
+				storeMemoryResult(code, op2);
+				return false;
+			case 7: //subImmReg
+				code.iconst(op1);
+				loadRegister(code, op2);
+				code.op(ClassFileWriter.ISUB);
+				storeResult(code, op2);
+				return false;
+
+			case 8: //moveMemReg
+				code.aload(1);
+				code.iconst(op2);
+				loadMemory(code, op1);
+				code.op(ClassFileWriter.IASTORE);
+				return false;
+			case 9: //moveRegMem
+				code.aload(2);
+				code.iconst(op2);
+				loadRegister(code, op1);
+				code.op(ClassFileWriter.IASTORE);
+				return false;
+			case 10: //moveRegReg
+				code.aload(1);
+				code.iconst(op2);
+				loadRegister(code, op1);
+				code.op(ClassFileWriter.IASTORE);
+				return false;
+			case 11: //moveImmReg
+				code.aload(1);
+				code.iconst(FunctionalEngine.IR);
+				code.iconst(op1);
+				code.op(ClassFileWriter.IASTORE);
+				code.aload(1);
+				code.iconst(op2);
+				code.iconst(op1);
+				code.op(ClassFileWriter.IASTORE);
+				return false;
+
+			case 12: //inc
+				loadRegister(code, op1);
+				code.iconst(1);
+				code.op(ClassFileWriter.IADD);
+				storeResult(code, op1);
+				return false;
+
+			case 13: //jmp
+				code.iconst(op1);
+				code.op(ClassFileWriter.IRETURN);
+				return true;
+			case 14: //jz
+				returnIf(code, ClassFileWriter.IFNE, op1, pc+2);
+				return true;
+			case 15: //jn
+				returnIf(code, ClassFileWriter.IFGE, op1, pc+2);
+				return true;
+
+			case 16: //jeq
+				compare(code, op1, op2);
+				returnIf(code, ClassFileWriter.IFNE, op3, pc+4);
+				return true;
+			case 17: //jneq
+				compare(code, op1, op2);
+				returnIf(code, ClassFileWriter.IFEQ, op3, pc+4);
+				return true;
+			case 18: //jgt
+				compare(code, op1, op2);
+				returnIf(code, ClassFileWriter.IFLE, op3, pc+4);
+				return true;
+			case 19: //jlw
+				compare(code, op1, op2);
+				returnIf(code, ClassFileWriter.IFGE, op3, pc+4);
+				return true;
+
+			case 20: //call
+				code.aload(1);
+				code.aload(2);
+				code.iconst(op1);
+				code.iconst(pc+2);
+				code.invoke(ClassFileWriter.INVOKESTATIC, RUNTIME, "call", "([I[III)I");
+				code.op(ClassFileWriter.IRETURN);
+				return true;
+			default: //ret
+				code.aload(1);
+				code.aload(2);
+				code.iconst(pc+1);
+				code.invoke(ClassFileWriter.INVOKESTATIC, RUNTIME, "ret", "([I[II)I");
+				code.op(ClassFileWriter.IRETURN);
+				return true;
+		}
+	}
+
+	private void loadRegister(ClassFileWriter.Code code, int id) {
+		code.aload(1);
+		code.iconst(id);
+		code.op(ClassFileWriter.IALOAD);
+	}
+
+	private void loadMemory(ClassFileWriter.Code code, int address) {
+		code.aload(2);
+		code.iconst(address);
+		code.invoke(ClassFileWriter.INVOKESTATIC, RUNTIME, "memoryRead", "([II)I");
+	}
+
+	/**
+	 * This method sets the flags with the result in the stack and stores it in the register
+	 * @param code
+	 * @param id
+	 */
+	private void storeResult(ClassFileWriter.Code code, int id) {
+		setFlags(code);
+		code.aload(1);
+		code.iconst(id);
+		code.iload(3);
+		code.op(ClassFileWriter.IASTORE);
+	}
+
+	/**
+	 * This method sets the flags with the result in the stack and stores it in IR and in the address
+	 * @param code
+	 * @param address
+	 */
+	private void storeMemoryResult(ClassFileWriter.Code code, int address) {
+		setFlags(code);
+		code.aload(1);
+		code.iconst(FunctionalEngine.IR);
+		code.iload(3);
+		code.op(ClassFileWriter.IASTORE);
+		code.aload(2);
+		code.iconst(address);
+		code.iload(3);
+		code.op(ClassFileWriter.IASTORE);
+	}
+
+	/**
+	 * This method keeps the result in the stack (in the local 3 and as the flags result)
+	 * @param code
+	 */
+	private void setFlags(ClassFileWriter.Code code) {
+		code.istore(3);
+		code.aload(1);
+		code.iconst(FunctionalEngine.FLAGS_RESULT);
+		code.iload(3);
+		code.op(ClassFileWriter.IASTORE);
+	}
+
+	private void compare(ClassFileWriter.Code code, int reg1, int reg2) {
+		loadRegister(code, reg1);
+		loadRegister(code, reg2);
+		code.op(ClassFileWriter.ISUB);
+		setFlags(code);
+	}
+
+	/**
+	 * This method returns the next address if the flags result satisfies the branch condition
+	 * (the opposite of the jump condition, IFNE for jz, for instance), otherwise the target
+	 * @param code
+	 * @param notTaken
+	 * @param target
+	 * @param next
+	 */
+	private void returnIf(ClassFileWriter.Code code, int notTaken, int target, int next) {
+		int notJumping = code.newLabel();
+		loadRegister(code, FunctionalEngine.FLAGS_RESULT);
+		code.jump(notTaken, notJumping);
+		code.iconst(target);
+		code.op(ClassFileWriter.IRETURN);
+		code.mark(notJumping);
+		code.iconst(next);
+		code.op(ClassFileWriter.IRETURN);
+	}
+}
@@ -0,0 +1,255 @@
+package architecture;
+
+import java.util.Arrays;
+
+import components.Storage;
+
+/**
+ * This class keeps the points where Architecture.runUntilBreak must stop: breakpoints
+ * (the PC reaches an address), watchpoints (a memory position is read or stored) and
+ * register conditions (a register becomes equal to a value).
+ * The addresses are kept in bitmaps, one bit for each memory position, so each check is O(1).
+ * The watchpoints see the memory through a storage that wraps the memory storage during the run,
+ * as the Recorder does, so they see every position the program reads or writes (through the bus,
+ * the stack or the decode cache) and the architecture does not need a listener
+ */
+public class Breakpoints {
+
+	/**
+	 * The reason of the last stop
+	 */
+	public enum Hit {NONE, BREAKPOINT, READ_WATCHPOINT, WRITE_WATCHPOINT, REGISTER_CONDITION}
+
+	private int size;
+	private long breakBits[];
+	private long readBits[];
+	private long writeBits[];
+
+	private int conditionIds[];    //the registers with conditions, in the first numConditions positions
+	private int conditionValues[];
+	private int lastValues[];      //the data of these registers before the command
+	private int numConditions;
+
+	private Storage storage; //the storage of the memory watched, the status memory is not watched
+	private Hit hit;
+	private int hitPosition;
+
+	/**
+	 * @param size the amount of memory positions that can have breakpoints and watchpoints
+	 */
+	public Breakpoints(int size) {
+		this.size = size;
+		breakBits = new long[(size+63)/64];
+		readBits = new long[(size+63)/64];
+		writeBits = new long[(size+63)/64];
+		conditionIds = new int[0];
+		conditionValues = new int[0];
+		lastValues = new int[0];
+		hit = Hit.NONE;
+	}
+
+	private static boolean test(long bits[], int position) {
+		return (bits[position >>> 6] & (1L << position)) != 0;
+	}
+
+	private void set(long bits[], int position, boolean value) {
+		if (position < 0 || position >= size)
+			throw new IndexOutOfBoundsException("position "+position+" out of the "+size+" positions");
+		if (value)
+			bits[position >>> 6] |= 1L << position;
+		else
+			bits[position >>> 6] &= ~(1L << position);
+	}
+
+	public void setBreakpoint(int address, boolean enabled) {
+		set(breakBits, address, enabled);
+	}
+
+	public void setReadWatchpoint(int position, boolean enabled) {
+		set(readBits, position, enabled);
+	}
+
+	public void setWriteWatchpoint(int position, boolean enabled) {
+		set(writeBits, position, enabled);
+	}
+
+	public boolean isBreakpoint(int address) {
+		return address >= 0 && address < size && test(breakBits, address);
+	}
+
+	public boolean isReadWatchpoint(int position) {
+		return position >= 0 && position < size && test(readBits, position);
+	}
+
+	public boolean isWriteWatchpoint(int position) {
+		return position >= 0 && position < size && test(writeBits, position);
+	}
+
+	/**
+	 * This method makes the run stop when the register becomes equal to the value
+	 * (a register that already has the value must change and get it again).
+	 * A register has only one condition: a new one replaces the old
+	 * @param id the register id, in the registers list order
+	 * @param value
+	 */
+	public void setRegisterCondition(int id, int value) {
+		removeRegisterCondition(id);
+		int length = numConditions+1;
+		conditionIds = Arrays.copyOf(conditionIds, length);
+		conditionValues = Arrays.copyOf(conditionValues, length);
+		lastValues = Arrays.copyOf(lastValues, length);
+		conditionIds[numConditions] = id;
+		conditionValues[numConditions] = value;
+		numConditions++;
+	}
+
+	public void removeRegisterCondition(int id) {
+		for (int i=0;i<numConditions;i++) {
+			if (conditionIds[i] == id) {
+				numConditions--;
+				conditionIds[i] = conditionIds[numConditions];
+				conditionValues[i] = conditionValues[numConditions];
+				return;
+			}
+		}
+	}
+
+	/**
+	 * This method removes all the breakpoints, watchpoints and conditions
+	 */
+	public void clear() {
+		Arrays.fill(breakBits, 0);
+		Arrays.fill(readBits, 0);
+		Arrays.fill(writeBits, 0);
+		numConditions = 0;
+	}
+
+	/**
+	 * This method returns why the last run stopped (NONE if the program ended)
+	 * @return
+	 */
+	public Hit getHit() {
+		return hit;
+	}
+
+	/**
+	 * This method returns the address of the breakpoint, the position of the watchpoint
+	 * or the register id of the condition that stopped the last run
+	 * @return
+	 */
+	public int getHitPosition() {
+		return hitPosition;
+	}
+
+	/**
+	 * This method prepares a run in the memory of an architecture
+	 * @param storage the storage of the memory
+	 * @return the storage the memory must use while the run goes on
+	 */
+	Storage start(Storage storage) {
+		this.storage = storage;
+		hit = Hit.NONE;
+		return new WatchingStorage();
+	}
+
+	/**
+	 * This method checks the read watchpoints in the words of a command that the
+	 * decode cache gives without reading them again from the memory
+	 * @param address
+	 * @param length
+	 */
+	void commandRead(int address, int length) {
+		for (int i=0;i<length;i++)
+			positionRead(address+i);
+	}
+
+	private void positionRead(int position) {
+		if (hit == Hit.NONE && isReadWatchpoint(position)) {
+			hit = Hit.READ_WATCHPOINT;
+			hitPosition = position;
+		}
+	}
+
+	private void positionWritten(int position) {
+		if (hit == Hit.NONE && isWriteWatchpoint(position)) {
+			hit = Hit.WRITE_WATCHPOINT;
+			hitPosition = position;
+		}
+	}
+
+	/**
+	 * This method keeps the data of the registers with conditions before a command
+	 * @param registers
+	 */
+	void beforeCommand(int registers[]) {
+		for (int i=0;i<numConditions;i++)
+			lastValues[i] = registers[conditionIds[i]];
+	}
+
+	/**
+	 * This method checks, after a command, the watchpoints it hit, the conditions
+	 * of the registers it changed and the breakpoint of the next command
+	 * @param pc
+	 * @param registers
+	 * @return true if the run must stop
+	 */
+	boolean afterCommand(int pc, int registers[]) {
+		if (hit != Hit.NONE)
+			return true;
+		for (int i=0;i<numConditions;i++) {
+			int data = registers[conditionIds[i]];
+			if (data == conditionValues[i] && data != lastValues[i]) {
+				hit = Hit.REGISTER_CONDITION;
+				hitPosition = conditionIds[i];
+				return true;
+			}
+		}
+		if (isBreakpoint(pc)) {
+			hit = Hit.BREAKPOINT;
+			hitPosition = pc;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * This class keeps the positions in the storage of the memory, checking the
+	 * watchpoints of the ones read and written. The copies of many positions at once
+	 * (snapshots, restores) are not made by the program, so they are not watched
+	 */
+	private class WatchingStorage implements Storage {
+
+		public int size() {
+			return storage.size();
+		}
+
+		public int get(int position) {
+			positionRead(position);
+			return storage.get(position);
+		}
+
+		public void set(int position, int data) {
+			storage.set(position, data);
+			positionWritten(position);
+		}
+
+		public void read(int position, int dest[], int offset, int length) {
+			storage.read(position, dest, offset, length);
+		}
+
+		public void write(int position, int src[], int offset, int length) {
+			storage.write(position, src, offset, length);
+		}
+
+		public Storage fork() {
+			return storage.fork();
+		}
+
+		/**
+		 * The array is not given, so every access is seen
+		 */
+		public int[] getArray() {
+			return null;
+		}
+	}
+}
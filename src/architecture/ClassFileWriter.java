@@ -0,0 +1,413 @@
+package architecture;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * This class writes a JVM class file with the methods whose bytecodes are given by Code objects.
+ * It knows only the few instructions needed to translate the architecture commands,
+ * and it writes class files of version 49, so the methods do not need stack map frames.
+ */
+public class ClassFileWriter {
+
+	public static final int ACC_PUBLIC = 0x0001;
+	public static final int ACC_PROTECTED = 0x0004;
+	public static final int ACC_STATIC = 0x0008;
+	public static final int ACC_FINAL = 0x0010;
+	public static final int ACC_SUPER = 0x0020;
+
+	public static final int MAX_CODE_LENGTH = 65535; //the JVM limit for the bytecodes of a method
+	private static final int MAX_POOL_COUNT = 65535;
+
+	//JVM opcodes used by the translations
+	public static final int ICONST_0 = 0x03;
+	public static final int BIPUSH = 0x10;
+	public static final int SIPUSH = 0x11;
+	public static final int LDC_W = 0x13;
+	public static final int ILOAD = 0x15;
+	public static final int ALOAD = 0x19;
+	public static final int IALOAD = 0x2e;
+	public static final int ISTORE = 0x36;
+	public static final int IASTORE = 0x4f;
+	public static final int DUP = 0x59;
+	public static final int IADD = 0x60;
+	public static final int ISUB = 0x64;
+	public static final int ISHR = 0x7a;
+	public static final int IFEQ = 0x99;
+	public static final int IFNE = 0x9a;
+	public static final int IFLT = 0x9b;
+	public static final int IFGE = 0x9c;
+	public static final int IFGT = 0x9d;
+	public static final int IFLE = 0x9e;
+	public static final int LOOKUPSWITCH = 0xab;
+	public static final int IRETURN = 0xac;
+	public static final int ARETURN = 0xb0;
+	public static final int RETURN = 0xb1;
+	public static final int INVOKEVIRTUAL = 0xb6;
+	public static final int INVOKESPECIAL = 0xb7;
+	public static final int INVOKESTATIC = 0xb8;
+	public static final int NEW = 0xbb;
+	public static final int NEWARRAY = 0xbc;
+
+	private static final int T_INT = 10; //NEWARRAY type
+
+	private static final int CONSTANT_UTF8 = 1;
+	private static final int CONSTANT_INTEGER = 3;
+	private static final int CONSTANT_CLASS = 7;
+	private static final int CONSTANT_METHODREF = 10;
+	private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+	private ByteArrayOutputStream pool = new ByteArrayOutputStream();
+	private DataOutputStream poolOut = new DataOutputStream(pool);
+	private HashMap<String, Integer> poolIndexes = new HashMap<String, Integer>();
+	private int poolCount = 1;
+
+	private int thisClass;
+	private int superClass;
+	private ArrayList<Integer> interfaces = new ArrayList<Integer>();
+	private ByteArrayOutputStream methods = new ByteArrayOutputStream();
+	private DataOutputStream methodsOut = new DataOutputStream(methods);
+	private int methodCount;
+
+	/**
+	 * @param className internal name, like "architecture/Block"
+	 * @param superName internal name of the super class
+	 */
+	public ClassFileWriter(String className, String superName) {
+		thisClass = classRef(className);
+		superClass = classRef(superName);
+	}
+
+	public void addInterface(String interfaceName) {
+		interfaces.add(classRef(interfaceName));
+	}
+
+	/**
+	 * This method adds a default constructor that only calls the super class one
+	 * @param superName
+	 */
+	public void addDefaultConstructor(String superName) {
+		Code code = new Code();
+		code.aload(0);
+		code.invoke(INVOKESPECIAL, superName, "<init>", "()V");
+		code.op(RETURN);
+		addMethod(ACC_PUBLIC, "<init>", "()V", code, 1);
+	}
+
+	/**
+	 * This method adds a method with the bytecodes in code
+	 * @param access
+	 * @param name
+	 * @param descriptor
+	 * @param code
+	 * @param maxLocals
+	 * @throws IllegalArgumentException if the bytecodes are longer than the JVM allows (MAX_CODE_LENGTH)
+	 */
+	public void addMethod(int access, String name, String descriptor, Code code, int maxLocals) {
+		byte bytes[] = code.toByteArray();
+		if (bytes.length > MAX_CODE_LENGTH)
+			throw new IllegalArgumentException("the method "+name+" has "+bytes.length+" bytes of code, but a method can have "+MAX_CODE_LENGTH);
+		try {
+			methodsOut.writeShort(access);
+			methodsOut.writeShort(utf8(name));
+			methodsOut.writeShort(utf8(descriptor));
+			methodsOut.writeShort(1); //only the Code attribute
+			methodsOut.writeShort(utf8("Code"));
+			methodsOut.writeInt(12+bytes.length);
+			methodsOut.writeShort(code.getMaxStack());
+			methodsOut.writeShort(maxLocals);
+			methodsOut.writeInt(bytes.length);
+			methodsOut.write(bytes);
+			methodsOut.writeShort(0); //no exception table
+			methodsOut.writeShort(0); //no attributes
+			methodCount++;
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * This method returns the class file contents
+	 * @return
+	 */
+	public byte[] toByteArray() {
+		try {
+			ByteArrayOutputStream file = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(file);
+			out.writeInt(0xCAFEBABE);
+			out.writeShort(0);  //minor version
+			out.writeShort(49); //major version: no stack map frames are needed
+			out.writeShort(poolCount);
+			out.write(pool.toByteArray());
+			out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(interfaces.size());
+			for (int i : interfaces)
+				out.writeShort(i);
+			out.writeShort(0); //no fields
+			out.writeShort(methodCount);
+			out.write(methods.toByteArray());
+			out.writeShort(0); //no attributes
+			out.flush();
+			return file.toByteArray();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	//constant pool
+
+	private int constant(String key, int tag, int a, int b, String text) {
+		Integer index = poolIndexes.get(key);
+		if (index != null)
+			return index;
+		if (poolCount == MAX_POOL_COUNT)
+			throw new IllegalStateException("the class has more than "+(MAX_POOL_COUNT-1)+" constants");
+		try {
+			poolOut.writeByte(tag);
+			if (tag == CONSTANT_UTF8)
+				poolOut.writeUTF(text);
+			else if (tag == CONSTANT_INTEGER)
+				poolOut.writeInt(a);
+			else if (tag == CONSTANT_CLASS)
+				poolOut.writeShort(a);
+			else {
+				poolOut.writeShort(a);
+				poolOut.writeShort(b);
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		poolIndexes.put(key, poolCount);
+		return poolCount++;
+	}
+
+	public int utf8(String text) {
+		return constant("U"+text, CONSTANT_UTF8, 0, 0, text);
+	}
+
+	public int integer(int value) {
+		return constant("I"+value, CONSTANT_INTEGER, value, 0, null);
+	}
+
+	public int classRef(String name) {
+		return constant("C"+name, CONSTANT_CLASS, utf8(name), 0, null);
+	}
+
+	private int nameAndType(String name, String descriptor) {
+		return constant("N"+name+" "+descriptor, CONSTANT_NAME_AND_TYPE, utf8(name), utf8(descriptor), null);
+	}
+
+	public int methodRef(String owner, String name, String descriptor) {
+		return constant("M"+owner+"."+name+descriptor, CONSTANT_METHODREF, classRef(owner), nameAndType(name, descriptor), null);
+	}
+
+	/**
+	 * This class keeps the bytecodes of a method.
+	 * The operand stack depth is followed by each instruction, so max_stack is computed
+	 */
+	public class Code {
+
+		private ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private int stack;
+		private int maxStack;
+		private ArrayList<int[]> jumps = new ArrayList<int[]>(); //{instruction position, label}
+		private ArrayList<int[]> switches = new ArrayList<int[]>(); //{instruction position, offset position, label}
+		private ArrayList<Integer> labels = new ArrayList<Integer>();
+
+		public int getMaxStack() {
+			return maxStack;
+		}
+
+		public int position() {
+			return bytes.size();
+		}
+
+		private void push(int n) {
+			stack += n;
+			if (stack > maxStack)
+				maxStack = stack;
+		}
+
+		private void u1(int b) {
+			bytes.write(b);
+		}
+
+		private void u2(int s) {
+			bytes.write(s >> 8);
+			bytes.write(s);
+		}
+
+		/**
+		 * This method writes an instruction without operands
+		 * @param opcode
+		 */
+		public void op(int opcode) {
+			u1(opcode);
+			switch (opcode) {
+				case IALOAD: case IADD: case ISUB: case ISHR: case IRETURN: case ARETURN: push(-1); break;
+				case IASTORE: push(-3); break;
+				case DUP: push(1); break;
+				default: break;
+			}
+		}
+
+		public void iconst(int value) {
+			if (value>=-1 && value<=5)
+				u1(ICONST_0+value);
+			else if (value>=Byte.MIN_VALUE && value<=Byte.MAX_VALUE) {
+				u1(BIPUSH);
+				u1(value);
+			}
+			else if (value>=Short.MIN_VALUE && value<=Short.MAX_VALUE) {
+				u1(SIPUSH);
+				u2(value);
+			}
+			else {
+				u1(LDC_W);
+				u2(integer(value));
+			}
+			push(1);
+		}
+
+		public void aload(int local) {
+			u1(ALOAD);
+			u1(local);
+			push(1);
+		}
+
+		public void iload(int local) {
+			u1(ILOAD);
+			u1(local);
+			push(1);
+		}
+
+		public void istore(int local) {
+			u1(ISTORE);
+			u1(local);
+			push(-1);
+		}
+
+		/**
+		 * This method writes a "new" of the class, leaving the (not initialized) object in the stack
+		 * @param className
+		 */
+		public void newObject(String className) {
+			u1(NEW);
+			u2(classRef(className));
+			push(1);
+		}
+
+		/**
+		 * This method writes the creation of an int array whose length is in the stack
+		 */
+		public void newIntArray() {
+			u1(NEWARRAY);
+			u1(T_INT);
+		}
+
+		/**
+		 * This method writes a lookupswitch over the int in the stack
+		 * @param keys the cases, in increasing order
+		 * @param labels the label of each case
+		 * @param defaultLabel
+		 */
+		public void lookupswitch(int keys[], int labels[], int defaultLabel) {
+			int position = bytes.size();
+			u1(LOOKUPSWITCH);
+			while (bytes.size()%4 != 0)
+				u1(0); //the operands are aligned in 4 bytes
+			switches.add(new int[] {position, bytes.size(), defaultLabel});
+			u2(0); u2(0); //default offset, fixed in toByteArray
+			u2(keys.length >> 16);
+			u2(keys.length);
+			for (int i=0;i<keys.length;i++) {
+				u2(keys[i] >> 16);
+				u2(keys[i]);
+				switches.add(new int[] {position, bytes.size(), labels[i]});
+				u2(0); u2(0);
+			}
+			push(-1);
+		}
+
+		/**
+		 * This method writes a method invocation. The stack effect comes from the descriptor
+		 * @param opcode INVOKESTATIC, INVOKESPECIAL or INVOKEVIRTUAL
+		 * @param owner
+		 * @param name
+		 * @param descriptor
+		 */
+		public void invoke(int opcode, String owner, String name, String descriptor) {
+			u1(opcode);
+			u2(methodRef(owner, name, descriptor));
+			int arguments = 0;
+			int i = 1;
+			while (descriptor.charAt(i) != ')') {
+				while (descriptor.charAt(i) == '[')
+					i++;
+				if (descriptor.charAt(i) == 'L')
+					i = descriptor.indexOf(';', i);
+				i++;
+				arguments++;
+			}
+			if (opcode != INVOKESTATIC)
+				arguments++; //the object
+			push(-arguments);
+			if (descriptor.charAt(i+1) != 'V')
+				push(1);
+		}
+
+		/**
+		 * This method creates a label, to be placed later with mark()
+		 * @return
+		 */
+		public int newLabel() {
+			labels.add(-1);
+			return labels.size()-1;
+		}
+
+		public void mark(int label) {
+			labels.set(label, bytes.size());
+		}
+
+		/**
+		 * This method writes a conditional branch (ifeq, ifne) to the label
+		 * @param opcode
+		 * @param label
+		 */
+		public void jump(int opcode, int label) {
+			jumps.add(new int[] {bytes.size(), label});
+			u1(opcode);
+			u2(0); //fixed in toByteArray
+			push(-1);
+		}
+
+		/**
+		 * This method returns the bytecodes with the jumps and switches pointing to their labels
+		 * @return
+		 * @throws IllegalArgumentException if a jump is farther than its 16 bits offset reaches
+		 */
+		public byte[] toByteArray() {
+			byte code[] = bytes.toByteArray();
+			for (int jump[] : jumps) {
+				int offset = labels.get(jump[1]) - jump[0];
+				if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE)
+					throw new IllegalArgumentException("a jump of "+offset+" bytes does not fit in its offset");
+				code[jump[0]+1] = (byte) (offset >> 8);
+				code[jump[0]+2] = (byte) offset;
+			}
+			for (int target[] : switches) {
+				int offset = labels.get(target[2]) - target[0];
+				code[target[1]] = (byte) (offset >> 24);
+				code[target[1]+1] = (byte) (offset >> 16);
+				code[target[1]+2] = (byte) (offset >> 8);
+				code[target[1]+3] = (byte) offset;
+			}
+			return code;
+		}
+	}
+}
@@ -0,0 +1,187 @@
+package architecture;
+
+import java.util.Arrays;
+
+import components.Memory;
+import components.Storage;
+
+/**
+ * This class keeps, for each memory position already used as an instruction address,
+ * the decoded command and its operands (register ids, addresses or immediates),
+ * so the control unit does not need to fetch and decode the same words again.
+ * The cache listens to the memory and drops every entry covering a position that was stored.
+ * The entries are kept in pages of PAGE_SIZE addresses, allocated only when a command in them
+ * is decoded, so the cache only costs for the code really executed (as a PagedStorage does).
+ * A fork shares the pages copy-on-write, as PagedStorage.fork does
+ */
+public class DecodeCache implements Memory.StoreListener {
+
+	public static final int MAX_LENGTH = 4; //command + 3 operands (jeq, jneq, jgt, jlw)
+
+	public static final int PAGE_BITS = 10;
+	public static final int PAGE_SIZE = 1 << PAGE_BITS; //addresses in each page
+	private static final int OFFSET_MASK = PAGE_SIZE-1;
+
+	/**
+	 * This class keeps the decoded commands of PAGE_SIZE addresses
+	 */
+	private static class Page {
+		private int commands[] = new int[PAGE_SIZE];
+		private int lengths[] = new int[PAGE_SIZE]; //0 for the addresses not decoded
+		private int operands[] = new int[PAGE_SIZE*(MAX_LENGTH-1)]; //MAX_LENGTH-1 positions for each address
+
+		private Page copy() {
+			Page copy = new Page();
+			System.arraycopy(commands, 0, copy.commands, 0, PAGE_SIZE);
+			System.arraycopy(lengths, 0, copy.lengths, 0, PAGE_SIZE);
+			System.arraycopy(operands, 0, copy.operands, 0, operands.length);
+			return copy;
+		}
+	}
+
+	private int size;
+	private Page pages[]; //null for the pages with no command decoded
+	private boolean shared[]; //the pages also used by a fork (or by the cache forked)
+	private int allocatedPages;
+
+	public DecodeCache(int size) {
+		this.size = size;
+		pages = new Page[(int) (((long) size+PAGE_SIZE-1) >> PAGE_BITS)];
+		shared = new boolean[pages.length];
+	}
+
+	/**
+	 * The fork receives the pages of this cache without copying them. From now on,
+	 * both caches copy a page before changing it for the first time
+	 * @return
+	 */
+	public DecodeCache fork() {
+		DecodeCache fork = new DecodeCache(size);
+		for (int i=0;i<pages.length;i++) {
+			if (pages[i] != null) {
+				fork.pages[i] = pages[i];
+				fork.shared[i] = true;
+				shared[i] = true;
+			}
+		}
+		return fork;
+	}
+
+	/**
+	 * This method returns the page of the address, ready to be changed: a new one
+	 * if it was not allocated, or a copy if it is shared
+	 * @param index
+	 * @return
+	 */
+	private Page writablePage(int index) {
+		Page page = pages[index];
+		if (page == null)
+			page = new Page();
+		else if (shared[index])
+			page = page.copy();
+		else
+			return page;
+		pages[index] = page;
+		shared[index] = false;
+		allocatedPages++;
+		return page;
+	}
+
+	/**
+	 * This method returns how many memory positions (command + operands)
+	 * the command uses in the machine code
+	 * @param command
+	 * @return
+	 */
+	public static int lengthOf(int command) {
+		if (command>=0 && command<=11)   //two operands
+			return 3;
+		if (command>=12 && command<=15 || command==20)   //one operand
+			return 2;
+		if (command>=16 && command<=19)   //three operands
+			return 4;
+		return 1; //ret and the end of the program
+	}
+
+	/**
+	 * This method returns how many pages were allocated by this cache,
+	 * including the shared pages it copied. The pages received from a fork are not counted
+	 * @return
+	 */
+	public int getAllocatedPages() {
+		return allocatedPages;
+	}
+
+	public boolean contains(int address) {
+		if (address<0 || address>=size)
+			return false;
+		Page page = pages[address >> PAGE_BITS];
+		return page != null && page.lengths[address & OFFSET_MASK] != 0;
+	}
+
+	public int getCommand(int address) {
+		return pages[address >> PAGE_BITS].commands[address & OFFSET_MASK];
+	}
+
+	public int getLength(int address) {
+		return pages[address >> PAGE_BITS].lengths[address & OFFSET_MASK];
+	}
+
+	/**
+	 * This method returns the operand #index (0, 1 or 2) of the command in the address
+	 * @param address
+	 * @param index
+	 * @return
+	 */
+	public int getOperand(int address, int index) {
+		return pages[address >> PAGE_BITS].operands[(address & OFFSET_MASK)*(MAX_LENGTH-1)+index];
+	}
+
+	/**
+	 * This method decodes the command found in the address, reading its operands
+	 * from the memory words just after it, and keeps the result
+	 * @param address
+	 * @param words the memory contents
+	 */
+	public void decode(int address, Storage words) {
+		int command = words.get(address);
+		int length = lengthOf(command);
+		Page page = writablePage(address >> PAGE_BITS);
+		int offset = address & OFFSET_MASK;
+		int base = offset*(MAX_LENGTH-1);
+
+		for (int i=1;i<length;i++) {
+			if (address+i < words.size())
+				page.operands[base+i-1] = words.get(address+i);
+			else
+				page.operands[base+i-1] = address+i; //out of the memory: the bus keeps the address
+		}
+		page.commands[offset] = command;
+		page.lengths[offset] = length;
+	}
+
+	/**
+	 * This method drops all the decoded commands whose words include the position
+	 * @param position
+	 */
+	public void invalidate(int position) {
+		for (int a=position-MAX_LENGTH+1;a<=position;a++) {
+			if (contains(a) && a+getLength(a)>position)
+				writablePage(a >> PAGE_BITS).lengths[a & OFFSET_MASK] = 0;
+		}
+	}
+
+	/**
+	 * This method drops all the decoded commands, and their pages
+	 */
+	public void clear() {
+		Arrays.fill(pages, null);
+		Arrays.fill(shared, false);
+		allocatedPages = 0;
+	}
+
+	@Override
+	public void stored(int position) {
+		invalidate(position);
+	}
+}
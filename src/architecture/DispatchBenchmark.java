@@ -0,0 +1,196 @@
+package architecture;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * This class measures the time the MICROPROGRAM mode spends per command with three dispatches
+ * of the microprograms: the switch over the command number used by the control unit, a table
+ * of microprogram objects indexed by the command number (one interface call site for every
+ * command) and the switch preceded by the work the simulation hook did for every command before
+ * it was only called in the simulation mode. The times are the CPU time of the thread,
+ * the best of ROUNDS runs. It is not a test: run its main method
+ */
+public class DispatchBenchmark {
+
+	private static final int ITERATIONS = 20000; //loop iterations of the benchmark program
+	private static final int ROUNDS = 30;
+
+	/**
+	 * The program is
+	 *  	move ITERATIONS %RPG0
+	 *  	move 0 %RPG1
+	 *  laco:
+	 *  	add 1 %RPG1
+	 *  	add %RPG1 %RPG2
+	 *  	move %RPG2 100
+	 *  	jgt %RPG0 %RPG1 laco
+	 *  	(end of the program)
+	 */
+	static final int PROGRAM[] = {11, ITERATIONS, 0,
+										  11, 0, 1,
+										  3, 1, 1,
+										  0, 1, 2,
+										  9, 2, 100,
+										  18, 0, 1, 6,
+										  -1};
+	static final long COMMANDS = 2 + 4L*ITERATIONS + 1;
+
+	private static Architecture load() {
+		Architecture arch = new Architecture();
+		for (int i=0;i<PROGRAM.length;i++)
+			arch.getMemory().getDataList()[i] = PROGRAM[i];
+		arch.initializeStack(120);
+		return arch;
+	}
+
+	/**
+	 * This interface is a microprogram in the dispatch table of tableExec
+	 */
+	private interface Microprogram {
+		void execute(Architecture arch);
+	}
+
+	/**
+	 * This method fetches the command in the PC and returns its number
+	 * @param arch
+	 * @return
+	 */
+	private static int fetch(Architecture arch) {
+		arch.getPC().read();
+		arch.getMemory().read();
+		arch.getIR().store();
+		arch.getIR().internalRead();
+		return arch.getExtbus1().get();
+	}
+
+	/**
+	 * This method executes a command with a switch over its number
+	 * @param arch
+	 * @param command
+	 * @return false at the end of the program
+	 */
+	private static boolean execute(Architecture arch, int command) {
+		switch (command) {
+			case 0: arch.addRegReg(); break;
+			case 1: arch.addMemReg(); break;
+			case 2: arch.addRegMem(); break;
+			case 3: arch.addImmReg(); break;
+			case 4: arch.subRegReg(); break;
+			case 5: arch.subMemReg(); break;
+			case 6: arch.subRegMem(); break;
+			case 7: arch.subImmReg(); break;
+			case 8: arch.moveMemReg(); break;
+			case 9: arch.moveRegMem(); break;
+			case 10: arch.moveRegReg(); break;
+			case 11: arch.moveImmReg(); break;
+			case 12: arch.inc(); break;
+			case 13: arch.jmp(); break;
+			case 14: arch.jz(); break;
+			case 15: arch.jn(); break;
+			case 16: arch.jeq(); break;
+			case 17: arch.jneq(); break;
+			case 18: arch.jgt(); break;
+			case 19: arch.jlw(); break;
+			case 20: arch.call(); break;
+			case 21: arch.ret(); break;
+			default: return false;
+		}
+		return true;
+	}
+
+	/**
+	 * This method runs the program with the switch dispatch, with no hook
+	 * @param arch
+	 */
+	private static void switchExec(Architecture arch) {
+		while (execute(arch, fetch(arch)))
+			;
+	}
+
+	/**
+	 * This method runs the program with the switch dispatch, preceded by the work
+	 * simulationDecodeExecuteBefore did for every command (but printing)
+	 * @param arch
+	 */
+	private static void hookedSwitchExec(Architecture arch) {
+		StringBuilder hook = new StringBuilder();
+		boolean running = true;
+		while (running) {
+			int command = fetch(arch);
+			hook.setLength(0);
+			for (components.Register r : arch.getRegistersList())
+				hook.append(r.getRegisterName()).append(": ").append(r.getData());
+			hook.append(command>=0 ? arch.getCommandsList().get(command) : "END");
+			running = execute(arch, command);
+		}
+	}
+
+	private static Microprogram[] table() {
+		Microprogram table[] = new Microprogram[22];
+		table[0] = new Microprogram() { public void execute(Architecture arch) { arch.addRegReg(); } };
+		table[1] = new Microprogram() { public void execute(Architecture arch) { arch.addMemReg(); } };
+		table[2] = new Microprogram() { public void execute(Architecture arch) { arch.addRegMem(); } };
+		table[3] = new Microprogram() { public void execute(Architecture arch) { arch.addImmReg(); } };
+		table[4] = new Microprogram() { public void execute(Architecture arch) { arch.subRegReg(); } };
+		table[5] = new Microprogram() { public void execute(Architecture arch) { arch.subMemReg(); } };
+		table[6] = new Microprogram() { public void execute(Architecture arch) { arch.subRegMem(); } };
+		table[7] = new Microprogram() { public void execute(Architecture arch) { arch.subImmReg(); } };
+		table[8] = new Microprogram() { public void execute(Architecture arch) { arch.moveMemReg(); } };
+		table[9] = new Microprogram() { public void execute(Architecture arch) { arch.moveRegMem(); } };
+		table[10] = new Microprogram() { public void execute(Architecture arch) { arch.moveRegReg(); } };
+		table[11] = new Microprogram() { public void execute(Architecture arch) { arch.moveImmReg(); } };
+		table[12] = new Microprogram() { public void execute(Architecture arch) { arch.inc(); } };
+		table[13] = new Microprogram() { public void execute(Architecture arch) { arch.jmp(); } };
+		table[14] = new Microprogram() { public void execute(Architecture arch) { arch.jz(); } };
+		table[15] = new Microprogram() { public void execute(Architecture arch) { arch.jn(); } };
+		table[16] = new Microprogram() { public void execute(Architecture arch) { arch.jeq(); } };
+		table[17] = new Microprogram() { public void execute(Architecture arch) { arch.jneq(); } };
+		table[18] = new Microprogram() { public void execute(Architecture arch) { arch.jgt(); } };
+		table[19] = new Microprogram() { public void execute(Architecture arch) { arch.jlw(); } };
+		table[20] = new Microprogram() { public void execute(Architecture arch) { arch.call(); } };
+		table[21] = new Microprogram() { public void execute(Architecture arch) { arch.ret(); } };
+		return table;
+	}
+
+	/**
+	 * This method runs the program with a dispatch table
+	 * @param arch
+	 * @param table
+	 */
+	private static void tableExec(Architecture arch, Microprogram table[]) {
+		int command = fetch(arch);
+		while (command>=0 && command<table.length) {
+			table[command].execute(arch);
+			command = fetch(arch);
+		}
+	}
+
+	public static void main(String[] args) {
+		ThreadMXBean thread = ManagementFactory.getThreadMXBean();
+		Microprogram table[] = table();
+		long times[] = {Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE};
+
+		for (int round=0;round<ROUNDS;round++) {
+			for (int dispatch=0;dispatch<times.length;dispatch++) {
+				Architecture arch = load();
+				long start = thread.getCurrentThreadCpuTime();
+				switch (dispatch) {
+					case 0: arch.controlUnitEexec(); break;
+					case 1: switchExec(arch); break;
+					case 2: tableExec(arch, table); break;
+					default: hookedSwitchExec(arch);
+				}
+				times[dispatch] = Math.min(times[dispatch], thread.getCurrentThreadCpuTime()-start);
+			}
+		}
+
+		System.out.println("Commands per run: "+COMMANDS);
+		System.out.println("Control unit:          "+(times[0]/COMMANDS)+" ns/command");
+		System.out.println("Switch dispatch:       "+(times[1]/COMMANDS)+" ns/command");
+		System.out.println("Dispatch table:        "+(times[2]/COMMANDS)+" ns/command");
+		System.out.println("Switch dispatch + hook: "+(times[3]/COMMANDS)+" ns/command");
+		System.out.printf("Table/switch: %.2fx, switch + hook/switch: %.2fx%n",
+				(double) times[2]/times[1], (double) times[3]/times[1]);
+	}
+}
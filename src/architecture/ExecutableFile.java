@@ -0,0 +1,316 @@
+package architecture;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+import components.DenseStorage;
+import components.Storage;
+
+/**
+ * This class reads and writes the binary executable format (.dxb), an alternative to the
+ * text .dxf where each word is a line. All the values are little-endian ints:
+ *  header:        magic, version, entry point, stack base, memory size, number of sections
+ *  section table: for each section, its type, load address, number of words and file offset (in bytes)
+ *  payload:       the words of the sections
+ * Loading a program is a bulk copy from the file contents (read at once or mapped)
+ * into the memory, with no parsing.
+ */
+public class ExecutableFile {
+
+	public static final String EXTENSION = ".dxb";
+	public static final int MAGIC = 0x5843414F; //"OACX" in the file
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 24;
+	public static final int SECTION_ENTRY_SIZE = 16;
+
+	//section types
+	public static final int SECTION_CODE = 1;
+	public static final int SECTION_DATA = 2;
+
+	/**
+	 * This class describes a section: the words loaded from the address
+	 */
+	public static class Section {
+		private int type;
+		private int address;
+		private int length;
+		private int offset;  //in the file
+		private int words[]; //only for the sections added to be written
+
+		private Section(int type, int address, int length) {
+			this.type = type;
+			this.address = address;
+			this.length = length;
+		}
+
+		public int getType() {
+			return type;
+		}
+
+		public int getAddress() {
+			return address;
+		}
+
+		public int getLength() {
+			return length;
+		}
+	}
+
+	private int entryPoint;
+	private int stackBase;
+	private int memorySize;
+	private ArrayList<Section> sections = new ArrayList<Section>();
+	private ByteBuffer contents; //the file contents, when the executable was read
+
+	public ExecutableFile(int entryPoint, int stackBase, int memorySize) {
+		this.entryPoint = entryPoint;
+		this.stackBase = stackBase;
+		this.memorySize = memorySize;
+	}
+
+	public int getEntryPoint() {
+		return entryPoint;
+	}
+
+	public int getStackBase() {
+		return stackBase;
+	}
+
+	public int getMemorySize() {
+		return memorySize;
+	}
+
+	public ArrayList<Section> getSections() {
+		return sections;
+	}
+
+	/**
+	 * This method adds a section to be written
+	 * @param type SECTION_CODE or SECTION_DATA
+	 * @param address where the words are loaded
+	 * @param words
+	 */
+	public void addSection(int type, int address, int words[]) {
+		Section section = new Section(type, address, words.length);
+		section.words = words;
+		sections.add(section);
+	}
+
+	/**
+	 * This method writes the executable in the file filename.dxb
+	 * @param filename
+	 * @throws IOException
+	 */
+	public void write(String filename) throws IOException {
+		int size = HEADER_SIZE + SECTION_ENTRY_SIZE*sections.size();
+		for (Section section : sections)
+			size += 4*section.length;
+		ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putInt(entryPoint);
+		buffer.putInt(stackBase);
+		buffer.putInt(memorySize);
+		buffer.putInt(sections.size());
+
+		int offset = HEADER_SIZE + SECTION_ENTRY_SIZE*sections.size();
+		for (Section section : sections) {
+			section.offset = offset;
+			buffer.putInt(section.type);
+			buffer.putInt(section.address);
+			buffer.putInt(section.length);
+			buffer.putInt(section.offset);
+			offset += 4*section.length;
+		}
+		IntBuffer payload = buffer.asIntBuffer();
+		for (Section section : sections) {
+			payload.position((section.offset - buffer.position())/4);
+			payload.put(section.words);
+		}
+
+		buffer.rewind();
+		FileOutputStream out = new FileOutputStream(filename+EXTENSION);
+		try {
+			FileChannel channel = out.getChannel();
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * This class writes an executable with a single code section from the address 0, word by word,
+	 * so the program does not have to be kept in memory. The number of words must be known
+	 * before, since it is in the section table (the same file is written by ExecutableFile.write)
+	 */
+	public static class CodeWriter {
+		private FileChannel channel;
+		private ByteBuffer buffer;
+		private int count;
+
+		public CodeWriter(String filename, int entryPoint, int stackBase, int memorySize, int length) throws IOException {
+			channel = FileChannel.open(Paths.get(filename+EXTENSION), StandardOpenOption.CREATE,
+									   StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putInt(entryPoint);
+			buffer.putInt(stackBase);
+			buffer.putInt(memorySize);
+			buffer.putInt(1);
+			buffer.putInt(SECTION_CODE);
+			buffer.putInt(0);
+			buffer.putInt(length);
+			buffer.putInt(HEADER_SIZE + SECTION_ENTRY_SIZE);
+		}
+
+		public void write(int word) throws IOException {
+			if (!buffer.hasRemaining())
+				flush();
+			buffer.putInt(word);
+			count++;
+		}
+
+		private void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+			buffer.clear();
+		}
+
+		/**
+		 * This method returns how many words were written
+		 * @return
+		 */
+		public int getCount() {
+			return count;
+		}
+
+		public void close() throws IOException {
+			try {
+				flush();
+			} finally {
+				channel.close();
+			}
+		}
+	}
+
+	/**
+	 * This method reads the file filename.dxb with a single read of its contents
+	 * @param filename
+	 * @return
+	 * @throws IOException if the file is not a valid executable
+	 */
+	public static ExecutableFile read(String filename) throws IOException {
+		FileInputStream in = new FileInputStream(filename+EXTENSION);
+		try {
+			FileChannel channel = in.getChannel();
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException(filename+EXTENSION+" is too big");
+			ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0)
+				;
+			buffer.flip();
+			return parse(buffer);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * This method maps the file filename.dxb into the memory, so the sections are copied
+	 * from the mapped pages when the executable is loaded, without reading the file into a buffer first
+	 * @param filename
+	 * @return
+	 * @throws IOException if the file is not a valid executable
+	 */
+	public static ExecutableFile map(String filename) throws IOException {
+		FileChannel channel = FileChannel.open(Paths.get(filename+EXTENSION), StandardOpenOption.READ);
+		try {
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException(filename+EXTENSION+" is too big");
+			return parse(channel.map(MapMode.READ_ONLY, 0, channel.size())); //the mapping outlives the channel
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * This method reads the header and the section table from the file contents
+	 * @param buffer
+	 * @return
+	 * @throws IOException if the contents are not a valid executable
+	 */
+	public static ExecutableFile parse(ByteBuffer buffer) throws IOException {
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+			throw new IOException("not an executable file");
+		if (buffer.getInt(4) != VERSION)
+			throw new IOException("executable file version "+buffer.getInt(4)+" is not supported");
+		ExecutableFile exec = new ExecutableFile(buffer.getInt(8), buffer.getInt(12), buffer.getInt(16));
+		int count = buffer.getInt(20);
+		if (count < 0 || HEADER_SIZE + (long) SECTION_ENTRY_SIZE*count > buffer.limit())
+			throw new IOException("invalid section table");
+
+		for (int i=0;i<count;i++) {
+			int entry = HEADER_SIZE + SECTION_ENTRY_SIZE*i;
+			Section section = new Section(buffer.getInt(entry), buffer.getInt(entry+4), buffer.getInt(entry+8));
+			section.offset = buffer.getInt(entry+12);
+			if (section.length < 0 || section.offset < 0 || section.offset%4 != 0 ||
+				section.offset + 4L*section.length > buffer.limit())
+				throw new IOException("section "+i+" is out of the file");
+			exec.sections.add(section);
+		}
+		exec.contents = buffer;
+		return exec;
+	}
+
+	/**
+	 * This method copies the sections into the memory array
+	 * @param memory
+	 * @throws IOException if a section does not fit in the memory
+	 */
+	public void load(int memory[]) throws IOException {
+		load(new DenseStorage(memory));
+	}
+
+	/**
+	 * This method copies the sections into the memory positions. When the storage keeps
+	 * them in an array, each section is a single bulk copy
+	 * @param storage
+	 * @throws IOException if a section does not fit in the memory
+	 */
+	public void load(Storage storage) throws IOException {
+		for (Section section : sections) {
+			if (section.address < 0 || (long) section.address + section.length > storage.size())
+				throw new IOException("the section at "+section.address+" does not fit in the memory");
+		}
+		int memory[] = storage.getArray();
+		for (Section section : sections) {
+			IntBuffer words;
+			if (section.words != null)
+				words = IntBuffer.wrap(section.words);
+			else {
+				ByteBuffer bytes = contents.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+				bytes.position(section.offset);
+				words = bytes.asIntBuffer();
+			}
+			if (memory != null)
+				words.get(memory, section.address, section.length);
+			else {
+				for (int i=0;i<section.length;i++)
+					storage.set(section.address+i, words.get(i));
+			}
+		}
+	}
+}
@@ -0,0 +1,15 @@
+package architecture;
+
+/**
+ * The ways the architecture can execute a program.
+ * MICROPROGRAM runs each command through its microprogram (buses, ula, registers),
+ * showing every step when in simulation mode.
+ * FUNCTIONAL runs the commands directly over primitive arrays (see FunctionalEngine),
+ * giving the same results much faster, without the microsteps.
+ * JIT runs like FUNCTIONAL, but the hot basic blocks are translated into JVM classes (see JitEngine).
+ */
+public enum ExecutionMode {
+	MICROPROGRAM,
+	FUNCTIONAL,
+	JIT
+}
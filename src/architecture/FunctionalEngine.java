@@ -0,0 +1,466 @@
+package architecture;
+
+/**
+ * This class executes the architecture commands without simulating the microprograms.
+ * The registers are kept in a primitive array (indexed by the same ids of the
+ * architecture registers list) and the memory is the memory data list itself,
+ * so each command is a few array accesses instead of the bus, ula and pc++ microsteps.
+ * The results in the registers, flags, memory and stack are the same of the microprograms
+ * when the operands are the general purpose registers, as the assembler generates.
+ */
+public class FunctionalEngine {
+
+	//registers ids, according the architecture registers list
+	public static final int PC = 4;
+	public static final int IR = 5;
+	public static final int FLAGS = 6;
+	public static final int STACK_BOTTON = 7;
+	public static final int STACK_TOP = 8;
+	public static final int STACK_LIMIT = 9;
+	public static final int NUM_REGISTERS = 10;
+	//the last ULA result is kept just after the registers: the flags bits
+	//are only computed from it when they are tested (see getBit)
+	public static final int FLAGS_RESULT = 10;
+
+	//superinstructions: pairs of commands executed by a single handler
+	private static final int NOT_FUSED = 0;
+	private static final int UPDATE_COMPARE_JUMP = 1; //register update + jeq/jneq/jgt/jlw
+	private static final int UPDATE_UPDATE = 2;       //register update + add/sub/inc in registers
+	private static final int UPDATE_FLAG_JUMP = 3;    //add/sub/inc in registers + jz/jn
+	//the decoded pair: first command, second command, 2 operands of the first, 3 of the second, length
+	private static final int FUSED_SLOTS = 8;
+
+	protected int registers[];
+	protected int memory[];
+	protected boolean halt;
+
+	private int fusedKinds[];  //the superinstruction starting in each address
+	private int fusedPairs[];  //FUSED_SLOTS positions for each address
+	private int fusedWords[];  //the memory contents when the pair was fused
+	private int fusedCount;
+	private boolean fusion = true;
+
+	public FunctionalEngine(int memory[]) {
+		this.memory = memory;
+		registers = new int[NUM_REGISTERS+1];
+		registers[FLAGS_RESULT] = 1; //no flag bit set
+		fusedKinds = new int[memory.length];
+		fusedPairs = new int[memory.length*FUSED_SLOTS];
+		fusedWords = new int[memory.length];
+	}
+
+	/**
+	 * This method turns the superinstructions on or off (they are on by default)
+	 * @param fusion
+	 */
+	public void setFusion(boolean fusion) {
+		this.fusion = fusion;
+		if (!fusion) {
+			for (int a=0;a<fusedKinds.length;a++)
+				fusedKinds[a] = NOT_FUSED;
+			fusedCount = 0;
+		}
+	}
+
+	public int getFusedPairs() {
+		return fusedCount;
+	}
+
+	protected boolean isFused(int address) {
+		return fusedKinds[address] != NOT_FUSED;
+	}
+
+	public int[] getRegisters() {
+		return registers;
+	}
+
+	public int[] getMemory() {
+		return memory;
+	}
+
+	/**
+	 * This method returns a flag bit, computed from the last result:
+	 * bit 0 is 1 when it is zero and bit 1 is 1 when it is negative
+	 * @param pos
+	 * @return
+	 */
+	public int getBit(int pos) {
+		int result = registers[FLAGS_RESULT];
+		if (pos == 0)
+			return result==0 ? 1 : 0;
+		return result<0 ? 1 : 0;
+	}
+
+	/**
+	 * This method sets a flag bit, keeping a result that gives the bits wanted.
+	 * No result is zero and negative: if both bits are set, only the zero bit is kept
+	 * @param pos
+	 * @param bit
+	 */
+	public void setBit(int pos, int bit) {
+		int zero = pos==0 ? bit : getBit(0);
+		int negative = pos==1 ? bit : getBit(1);
+		registers[FLAGS_RESULT] = zero==1 ? 0 : (negative==1 ? -1 : 1);
+	}
+
+	/**
+	 * This method returns the data in the address, behaving like memory.read():
+	 * addresses out of the memory are kept as they are
+	 * @param address
+	 * @return
+	 */
+	protected int read(int address) {
+		if (address>=0 && address<memory.length)
+			return memory[address];
+		return address;
+	}
+
+	protected void setStatusFlags(int result) {
+		registers[FLAGS_RESULT] = result;
+	}
+
+	/**
+	 * This method is called after each memory position written by a command.
+	 * Engines keeping information about the memory contents override it
+	 * @param address
+	 */
+	protected void stored(int address) {
+		for (int a=address-6;a<=address;a++) { //a pair uses at most 7 positions
+			if (a>=0 && a<fusedKinds.length && fusedKinds[a] != NOT_FUSED && a+fusedPairs[a*FUSED_SLOTS+7] > address)
+				unfuse(a);
+		}
+	}
+
+	/**
+	 * This method executes the program stored in the memory, starting in the PC,
+	 * until a command that is not in the architecture is found.
+	 * Before running, the pairs of commands reachable from the PC that have a superinstruction are fused
+	 */
+	public void run() {
+		int pc = registers[PC];
+		int kinds[] = fusedKinds;
+		if (fusion) {
+			dropChangedPairs();
+			fuseProgram(pc);
+		}
+		halt = false;
+		while (!halt) {
+			if (pc>=0 && pc<kinds.length && kinds[pc] != NOT_FUSED)
+				pc = fusedStep(pc);
+			else
+				pc = step(pc);
+		}
+		registers[PC] = pc;
+	}
+
+	//superinstructions
+
+	private static boolean updatesRegister(int command) {
+		return command==0 || command==3 || command==4 || command==7 || command==10 || command==11 || command==12;
+	}
+
+	private static boolean setsFlags(int command) {
+		return command==0 || command==3 || command==4 || command==7 || command==12;
+	}
+
+	/**
+	 * This method follows the commands reachable from the start address (through the
+	 * sequence, jumps and calls) and fuses each pair of consecutive commands that has
+	 * a superinstruction
+	 * @param start
+	 */
+	private void fuseProgram(int start) {
+		int mem[] = memory;
+		boolean visited[] = new boolean[mem.length];
+		int pending[] = new int[mem.length+1];
+		int count = 0;
+		pending[count++] = start;
+		while (count > 0) {
+			int address = pending[--count];
+			while (address>=0 && address<mem.length && !visited[address]) {
+				visited[address] = true;
+				int command = mem[address];
+				if (command<0 || command>21 || command==21) //the end of the program or ret
+					break;
+				int length = DecodeCache.lengthOf(command);
+				if (address+length > mem.length)
+					break;
+				if (command>=13 && command<=20) { //jumps and call: the target is the last operand
+					int target = mem[address+length-1];
+					if (target>=0 && target<mem.length && !visited[target] && count<pending.length)
+						pending[count++] = target;
+					if (command == 13)
+						break;
+				}
+				else if (fusedKinds[address] == NOT_FUSED)
+					fuse(address);
+				address += length;
+			}
+		}
+	}
+
+	/**
+	 * This method replaces the pair of commands starting in the address by a superinstruction,
+	 * if there is one for them. The flags set by the first command are not computed
+	 * when the second command sets them again
+	 * @param address
+	 */
+	private void fuse(int address) {
+		int mem[] = memory;
+		int first = mem[address];
+		int length = DecodeCache.lengthOf(first);
+		if (address+length >= mem.length)
+			return;
+		int second = mem[address+length];
+		int totalLength = length + DecodeCache.lengthOf(second);
+		if (address+totalLength > mem.length)
+			return;
+
+		int kind = NOT_FUSED;
+		if (updatesRegister(first) && second>=16 && second<=19)
+			kind = UPDATE_COMPARE_JUMP;
+		else if (updatesRegister(first) && setsFlags(second))
+			kind = UPDATE_UPDATE;
+		else if (setsFlags(first) && (second==14 || second==15))
+			kind = UPDATE_FLAG_JUMP;
+		if (kind == NOT_FUSED)
+			return;
+
+		int base = address*FUSED_SLOTS;
+		fusedPairs[base] = first;
+		fusedPairs[base+1] = second;
+		for (int i=1;i<length;i++)
+			fusedPairs[base+1+i] = mem[address+i];
+		for (int i=1;i<totalLength-length;i++)
+			fusedPairs[base+3+i] = mem[address+length+i];
+		fusedPairs[base+7] = totalLength;
+		for (int i=0;i<totalLength;i++)
+			fusedWords[address+i] = mem[address+i];
+		fusedKinds[address] = kind;
+		fusedCount++;
+	}
+
+	private void unfuse(int address) {
+		fusedKinds[address] = NOT_FUSED;
+		fusedCount--;
+	}
+
+	/**
+	 * This method drops the superinstructions whose commands were changed
+	 * out of the engine since they were fused (for instance, a new program was loaded)
+	 */
+	private void dropChangedPairs() {
+		for (int a=0;a<fusedKinds.length;a++) {
+			if (fusedKinds[a] != NOT_FUSED) {
+				int length = fusedPairs[a*FUSED_SLOTS+7];
+				for (int i=0;i<length;i++) {
+					if (memory[a+i] != fusedWords[a+i]) {
+						unfuse(a);
+						break;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * This method executes the register update of a superinstruction, without the flags
+	 * @return the value stored in the register
+	 */
+	private int update(int command, int op1, int op2) {
+		int r[] = registers;
+		switch (command) {
+			case 0:  return r[op2] = r[op1] + r[op2];
+			case 3:  return r[op2] = op1 + r[op2];
+			case 4:  return r[op2] = r[op1] - r[op2];
+			case 7:  return r[op2] = op1 - r[op2];
+			case 10: return r[op2] = r[op1];
+			case 11: return r[op2] = op1;
+			default: return r[op1] = r[op1] + 1; //inc
+		}
+	}
+
+	/**
+	 * This method executes the superinstruction starting in the address
+	 * and returns the address of the next command
+	 * @param pc
+	 * @return
+	 */
+	private int fusedStep(int pc) {
+		int r[] = registers;
+		int f[] = fusedPairs;
+		int base = pc*FUSED_SLOTS;
+		int second = f[base+1];
+		int result;
+		boolean taken;
+
+		r[IR] = second;
+		switch (fusedKinds[pc]) {
+			case UPDATE_COMPARE_JUMP:
+				update(f[base], f[base+2], f[base+3]);
+				result = r[f[base+4]] - r[f[base+5]];
+				setStatusFlags(result);
+				if (second == 16)
+					taken = result == 0;
+				else if (second == 17)
+					taken = result != 0;
+				else if (second == 18)
+					taken = result > 0;
+				else
+					taken = result < 0;
+				return taken ? f[base+6] : pc+f[base+7];
+			case UPDATE_UPDATE:
+				update(f[base], f[base+2], f[base+3]);
+				setStatusFlags(update(second, f[base+4], f[base+5]));
+				return pc+f[base+7];
+			default: //UPDATE_FLAG_JUMP
+				result = update(f[base], f[base+2], f[base+3]);
+				setStatusFlags(result);
+				taken = second == 14 ? result == 0 : result < 0;
+				return taken ? f[base+4] : pc+f[base+7];
+		}
+	}
+
+	/**
+	 * This method executes the command in the address and returns the address
+	 * of the next command. Commands not in the architecture set halt
+	 * @param pc
+	 * @return
+	 */
+	protected int step(int pc) {
+		int r[] = registers;
+		int mem[] = memory;
+		int result;
+		int command = read(pc);
+		r[IR] = command;
+
+		switch (command) {
+			case 0: //addRegReg
+				result = r[mem[pc+1]] + r[mem[pc+2]];
+				setStatusFlags(result);
+				r[mem[pc+2]] = result;
+				pc += 3;
+				break;
+			case 1: //addMemReg
+				result = read(mem[pc+1]) + r[mem[pc+2]];
+				setStatusFlags(result);
+				r[mem[pc+2]] = result;
+				pc += 3;
+				break;
+			case 2: //addRegMem
+				result = r[mem[pc+1]] + read(mem[pc+2]);
+				setStatusFlags(result);
+				r[IR] = result;
+				mem[mem[pc+2]] = result;
+				stored(mem[pc+2]);
+				pc += 3;
+				break;
+			case 3: //addImmReg
+				result = mem[pc+1] + r[mem[pc+2]];
+				setStatusFlags(result);
+				r[mem[pc+2]] = result;
+				pc += 3;
+				break;
+
+			case 4: //subRegReg
+				result = r[mem[pc+1]] - r[mem[pc+2]];
+				setStatusFlags(result);
+				r[mem[pc+2]] = result;
+				pc += 3;
+				break;
+			case 5: //subMemReg
+				result = read(mem[pc+1]) - r[mem[pc+2]];
+				setStatusFlags(result);
+				r[mem[pc+2]] = result;
+				pc += 3;
+				break;
+			case 6: //subRegMem
+				result = r[mem[pc+1]] - read(mem[pc+2]);
+				setStatusFlags(result);
+				r[IR] = result;
+				mem[mem[pc+2]] = result;
+				stored(mem[pc+2]);
+				pc += 3;
+				break;
+			case 7: //subImmReg
+				result = mem[pc+1] - r[mem[pc+2]];
+				setStatusFlags(result);
+				r[mem[pc+2]] = result;
+				pc += 3;
+				break;
+
+			case 8: //moveMemReg
+				r[mem[pc+2]] = read(mem[pc+1]);
+				pc += 3;
+				break;
+			case 9: //moveRegMem
+				mem[mem[pc+2]] = r[mem[pc+1]];
+				stored(mem[pc+2]);
+				pc += 3;
+				break;
+			case 10: //moveRegReg
+				r[mem[pc+2]] = r[mem[pc+1]];
+				pc += 3;
+				break;
+			case 11: //moveImmReg
+				r[IR] = mem[pc+1];
+				r[mem[pc+2]] = mem[pc+1];
+				pc += 3;
+				break;
+
+			case 12: //inc
+				result = r[mem[pc+1]] + 1;
+				setStatusFlags(result);
+				r[mem[pc+1]] = result;
+				pc += 2;
+				break;
+
+			case 13: //jmp
+				pc = mem[pc+1];
+				break;
+			case 14: //jz
+				pc = r[FLAGS_RESULT]==0 ? mem[pc+1] : pc+2;
+				break;
+			case 15: //jn
+				pc = r[FLAGS_RESULT]<0 ? mem[pc+1] : pc+2;
+				break;
+
+			case 16: //jeq
+				setStatusFlags(r[mem[pc+1]] - r[mem[pc+2]]);
+				pc = r[FLAGS_RESULT]==0 ? mem[pc+3] : pc+4;
+				break;
+			case 17: //jneq
+				setStatusFlags(r[mem[pc+1]] - r[mem[pc+2]]);
+				pc = r[FLAGS_RESULT]!=0 ? mem[pc+3] : pc+4;
+				break;
+			case 18: //jgt
+				setStatusFlags(r[mem[pc+1]] - r[mem[pc+2]]);
+				pc = r[FLAGS_RESULT]>0 ? mem[pc+3] : pc+4;
+				break;
+			case 19: //jlw
+				setStatusFlags(r[mem[pc+1]] - r[mem[pc+2]]);
+				pc = r[FLAGS_RESULT]<0 ? mem[pc+3] : pc+4;
+				break;
+
+			case 20: //call
+				if (r[STACK_TOP] >= r[STACK_LIMIT]) { //the stack is not full
+					mem[r[STACK_TOP]] = pc+2; //the return address
+					stored(r[STACK_TOP]);
+					r[STACK_TOP]--;
+				}
+				pc = mem[pc+1];
+				break;
+			case 21: //ret
+				if (r[STACK_TOP] == r[STACK_BOTTON])
+					pc++;
+				else {
+					r[STACK_TOP]++;
+					pc = mem[r[STACK_TOP]];
+				}
+				break;
+
+			default: halt = true; break;
+		}
+		return pc;
+	}
+}
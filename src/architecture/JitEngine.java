@@ -0,0 +1,167 @@
+package architecture;
+
+/**
+ * This class executes the program like the FunctionalEngine, but translates the hot
+ * basic blocks of the program into JVM classes, so the JVM itself can optimize them.
+ * Each block (see BlockTranslator) becomes a class whose run method does the block
+ * commands with the register ids, addresses and immediates as constants,
+ * returning the address of the next command.
+ * The commands out of the compiled blocks (cold code, the end of the program) are executed
+ * by the FunctionalEngine step. Any store into a position already compiled drops all the blocks.
+ */
+public class JitEngine extends FunctionalEngine {
+
+	public static final int HOT_THRESHOLD = 50; //executions of a block start before compiling it
+
+	/**
+	 * This interface is implemented by the classes generated for the blocks.
+	 * It is public because they are defined by other class loaders
+	 */
+	public interface Block {
+		public int run(int r[], int m[]);
+	}
+
+	/**
+	 * This class loader defines the class of a block. Each block has its own loader,
+	 * so the classes have the same name and the ones of the blocks dropped can be unloaded
+	 */
+	private static class BlockLoader extends ClassLoader {
+		public BlockLoader() {
+			super(JitEngine.class.getClassLoader());
+		}
+
+		public Class<?> define(byte classFile[]) {
+			return defineClass("architecture.JitBlock", classFile, 0, classFile.length);
+		}
+	}
+
+	private BlockTranslator translator;
+	private Block blocks[];            //the compiled block starting in each address
+	private int blockStores[];         //the position stored by the last command of each block
+	private int counters[];            //executions of each block start
+	private boolean leaders[];         //addresses that start a basic block
+	private boolean compiledCode[];    //positions translated into some block
+	private int compiledWords[];       //the memory contents when they were translated
+	private int compiledBlocks;
+
+	public JitEngine(int memory[]) {
+		super(memory);
+		translator = new BlockTranslator(memory);
+		blocks = new Block[memory.length];
+		blockStores = new int[memory.length];
+		counters = new int[memory.length];
+		leaders = new boolean[memory.length];
+		compiledCode = new boolean[memory.length];
+		compiledWords = new int[memory.length];
+	}
+
+	public int getCompiledBlocks() {
+		return compiledBlocks;
+	}
+
+	protected boolean isCompiled(int address) {
+		return blocks[address] != null;
+	}
+
+	/**
+	 * This method executes the program stored in the memory, starting in the PC,
+	 * running the compiled blocks when there is one for the current address
+	 */
+	@Override
+	public void run() {
+		int r[] = registers;
+		int mem[] = memory;
+		int pc = r[PC];
+		dropChangedBlocks();
+		BlockTranslator.findLeaders(mem, leaders, pc);
+		halt = false;
+
+		while (!halt) {
+			if (pc>=0 && pc<mem.length) {
+				Block block = blocks[pc];
+				if (block != null) {
+					int start = pc;
+					pc = block.run(r, mem);
+					if (blockStores[start] != BlockRuntime.NO_STORE)
+						stored(BlockRuntime.storedPosition(r, blockStores[start]));
+					if (pc>=0 && pc<mem.length)
+						leaders[pc] = true;
+					continue;
+				}
+				if (leaders[pc] && ++counters[pc] == HOT_THRESHOLD && compile(pc))
+					continue;
+			}
+			int command = read(pc);
+			pc = step(pc);
+			if (command>=13 && command<=21 && pc>=0 && pc<mem.length)
+				leaders[pc] = true; //a jump, call or ret target
+		}
+		r[PC] = pc;
+	}
+
+	@Override
+	protected void stored(int address) {
+		super.stored(address);
+		if (address>=0 && address<compiledCode.length && compiledCode[address])
+			dropBlocks();
+	}
+
+	/**
+	 * This method drops the blocks if the memory was changed out of the engine
+	 * since they were compiled (for instance, a new program was loaded)
+	 */
+	private void dropChangedBlocks() {
+		for (int i=0;i<memory.length;i++) {
+			if (compiledCode[i] && compiledWords[i] != memory[i]) {
+				dropBlocks();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * This method drops all the compiled blocks. They are compiled again when they become hot
+	 */
+	private void dropBlocks() {
+		for (int i=0;i<memory.length;i++) {
+			blocks[i] = null;
+			compiledCode[i] = false;
+			counters[i] = 0;
+		}
+		compiledBlocks = 0;
+	}
+
+	/**
+	 * This method translates the basic block starting in the address into a class
+	 * @param start
+	 * @return false if there is no command to translate
+	 */
+	private boolean compile(int start) {
+		ClassFileWriter writer = new ClassFileWriter("architecture/JitBlock", "java/lang/Object");
+		writer.addInterface("architecture/JitEngine$Block");
+		writer.addDefaultConstructor("java/lang/Object");
+		ClassFileWriter.Code code = writer.new Code();
+		int end = translator.translate(code, start, leaders);
+		if (end == start)
+			return false;
+		writer.addMethod(ClassFileWriter.ACC_PUBLIC, "run", "([I[I)I", code, 4);
+
+		blocks[start] = define(writer.toByteArray());
+		blockStores[start] = translator.getStore();
+		for (int i=start;i<end;i++) {
+			compiledCode[i] = true;
+			compiledWords[i] = memory[i];
+		}
+		compiledBlocks++;
+		return true;
+	}
+
+	private Block define(byte classFile[]) {
+		try {
+			Class<?> blockClass = new BlockLoader().define(classFile);
+			return (Block) blockClass.getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("the block could not be compiled", e);
+		}
+	}
+}
@@ -0,0 +1,186 @@
+package architecture;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import components.Bus;
+import components.ComponentListener;
+import components.DenseStorage;
+import components.Memory;
+import components.Register;
+
+/**
+ * This class measures what the component listeners cost in the MICROPROGRAM mode.
+ * The components only check for listeners while a listened architecture executes (see EventLog),
+ * so the architectures without listener must run as fast after a listened one as before it.
+ * Each measure is made in a new JVM, because the JIT does not compile the same code the same way
+ * every time: the program runs without listener, with a counting listener and then without
+ * listener again, and the times are the CPU time of the thread (the best of ROUNDS runs).
+ * At the end, the program runs without listener while another thread runs it without listener
+ * and then with it: the switch of the listeners is the same for the whole JVM, so the listened
+ * thread costs more than the other one.
+ * It fails (with an AssertionError) when the median of the ratios of the times after and before
+ * the listened runs is more than TOLERANCE. The concurrent time is only reported.
+ * It runs the program of DispatchBenchmark. It is not a test: run its main method
+ */
+public class ListenerBenchmark {
+
+	private static final int ROUNDS = 40;
+
+	private static final int JVMS = 5;
+
+	private static final double TOLERANCE = 1.1;
+
+	private static final ThreadMXBean THREAD = ManagementFactory.getThreadMXBean();
+
+	private static long events; //keeps the listener from being optimized away
+
+	private static volatile boolean stopped; //stops the other thread of measureWithThread
+
+	private static Architecture load(ComponentListener listener) {
+		Architecture arch = new Architecture(false, ExecutionMode.MICROPROGRAM, new DenseStorage(Architecture.DEFAULT_MEMORY_SIZE), listener);
+		for (int i=0;i<DispatchBenchmark.PROGRAM.length;i++)
+			arch.getMemory().getDataList()[i] = DispatchBenchmark.PROGRAM[i];
+		arch.initializeStack(120);
+		return arch;
+	}
+
+	/**
+	 * This method returns the best time of the program per command in ROUNDS runs
+	 * @param listener
+	 * @return
+	 */
+	private static long measure(ComponentListener listener) {
+		long best = Long.MAX_VALUE;
+		for (int round=0;round<ROUNDS;round++) {
+			Architecture arch = load(listener);
+			long start = THREAD.getCurrentThreadCpuTime();
+			arch.controlUnitEexec();
+			best = Math.min(best, THREAD.getCurrentThreadCpuTime()-start);
+		}
+		return best/DispatchBenchmark.COMMANDS;
+	}
+
+	/**
+	 * This method makes the measures of a JVM and prints them in a line:
+	 * the times without listener, with it and without it again
+	 */
+	private static void measureInThisJvm() {
+		ComponentListener counter = new ComponentListener() {
+			public void busPut(Bus bus, int data) {
+				events++;
+			}
+			public void memoryRead(Memory memory, int position, int data) {
+				events++;
+			}
+			public void memoryStored(Memory memory, int position, int data) {
+				events++;
+			}
+			public void registerStored(Register register, int data) {
+				events++;
+			}
+		};
+
+		measure(null); //warm up
+		long plainTime = measure(null);
+		long listenedTime = measure(counter);
+		measure(null); //the microsteps are compiled again after the listened run
+		long plainAfterTime = measure(null);
+		long sharedTime = measureWithThread(null); //what sharing the CPU with another thread costs
+		long concurrentTime = measureWithThread(counter);
+		System.out.println(plainTime+" "+listenedTime+" "+plainAfterTime+" "+sharedTime+" "+concurrentTime);
+	}
+
+	/**
+	 * This method measures the program without listener while another thread
+	 * executes it, again and again, with the listener
+	 * @param listener null for another thread without listener
+	 * @return
+	 */
+	private static long measureWithThread(final ComponentListener listener) {
+		stopped = false;
+		Thread listened = new Thread() {
+			public void run() {
+				while (!stopped)
+					load(listener).controlUnitEexec();
+			}
+		};
+		listened.start();
+		try {
+			measure(null); //the microsteps are compiled again with the listened thread running
+			return measure(null);
+		} finally {
+			stopped = true;
+			try {
+				listened.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * This method runs the measures in a new JVM and returns them
+	 * @return
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private static long[] measureInNewJvm() throws IOException, InterruptedException {
+		String java = System.getProperty("java.home")+File.separator+"bin"+File.separator+"java";
+		ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+				ListenerBenchmark.class.getName(), "measure");
+		builder.redirectErrorStream(true);
+		Process process = builder.start();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+		String line = reader.readLine();
+		reader.close();
+		if (process.waitFor() != 0 || line == null)
+			throw new IllegalStateException("the measures failed: "+line);
+		String words[] = line.trim().split(" ");
+		long times[] = new long[words.length];
+		for (int i=0;i<words.length;i++)
+			times[i] = Long.parseLong(words[i]);
+		return times;
+	}
+
+	private static double median(ArrayList<Double> values) {
+		Double sorted[] = values.toArray(new Double[values.size()]);
+		Arrays.sort(sorted);
+		return sorted[sorted.length/2];
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length > 0 && args[0].equals("measure")) {
+			measureInThisJvm();
+			return;
+		}
+		ArrayList<Double> listened = new ArrayList<Double>();
+		ArrayList<Double> plainAfter = new ArrayList<Double>();
+		ArrayList<Double> shared = new ArrayList<Double>();
+		ArrayList<Double> concurrent = new ArrayList<Double>();
+		for (int jvm=0;jvm<JVMS;jvm++) {
+			long times[] = measureInNewJvm();
+			listened.add((double) times[1]/times[0]);
+			plainAfter.add((double) times[2]/times[0]);
+			shared.add((double) times[3]/times[0]);
+			concurrent.add((double) times[4]/times[0]);
+			System.out.println("JVM "+jvm+": no listener "+times[0]+", counting listener "+times[1]+
+					", no listener after it "+times[2]+", no listener with another thread "+times[3]+
+					", no listener with a listened thread "+times[4]+" ns/command");
+		}
+
+		double after = median(plainAfter);
+		System.out.println("Commands per run: "+DispatchBenchmark.COMMANDS);
+		System.out.printf("Medians of %d JVMs: listened/plain %.2fx, plain after/before %.2fx%n", JVMS, median(listened), after);
+		System.out.printf("Plain next to another thread/alone: without listener %.2fx, listened %.2fx%n",
+				median(shared), median(concurrent));
+		if (after > TOLERANCE)
+			throw new AssertionError("the architectures without listener are "+String.format("%.2f", after)+"x slower after a listened one ran");
+	}
+}
@@ -0,0 +1,80 @@
+package architecture;
+
+/**
+ * This class keeps a copy of the whole state of an architecture: the registers, the flags bits,
+ * the memory and the status memory positions, the buses values, the demux and the halt state.
+ * It is made by Architecture.snapshot() and never changes, so the same state can be restored
+ * many times (for instance, to run a program again from its initial state without reading it again).
+ * The ULA registers are not kept: they only hold values while a command is executed
+ */
+public final class MachineState {
+
+	private final int registers[];
+	private final int flags[];
+	private final int memory[];
+	private final int statusMemory[];
+	private final int buses[];
+	private final int demux;
+	private final boolean halt;
+
+	MachineState(int registers[], int flags[], int memory[], int statusMemory[], int buses[], int demux, boolean halt) {
+		this.registers = registers;
+		this.flags = flags;
+		this.memory = memory;
+		this.statusMemory = statusMemory;
+		this.buses = buses;
+		this.demux = demux;
+		this.halt = halt;
+	}
+
+	/**
+	 * This method returns the data of a register, in the registers list order
+	 * @param id
+	 * @return
+	 */
+	public int getRegister(int id) {
+		return registers[id];
+	}
+
+	public int getFlagBit(int pos) {
+		return flags[pos];
+	}
+
+	public int getMemoryData(int position) {
+		return memory[position];
+	}
+
+	public int getMemorySize() {
+		return memory.length;
+	}
+
+	public boolean isHalted() {
+		return halt;
+	}
+
+	//the arrays are only given to the architecture restoring the state, that does not change them
+
+	int[] getRegisters() {
+		return registers;
+	}
+
+	int[] getFlags() {
+		return flags;
+	}
+
+	int[] getMemory() {
+		return memory;
+	}
+
+	int[] getStatusMemory() {
+		return statusMemory;
+	}
+
+	int[] getBuses() {
+		return buses;
+	}
+
+	int getDemux() {
+		return demux;
+	}
+}
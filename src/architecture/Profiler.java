@@ -0,0 +1,192 @@
+package architecture;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import components.Bus;
+import components.ComponentListener;
+import components.Memory;
+import components.Register;
+
+/**
+ * This class counts, for each memory address, how many commands were executed there and
+ * how many microsteps (data put in the buses) they took (see Architecture.setProfiling).
+ * The microsteps are counted by a listener of the buses (see getListener), so the profiled
+ * architecture is a listened one.
+ * The report gives the counts by label, when the labels of the program are known
+ * (see Assembler.addLabels), ranked by microsteps, and the addresses that took more of them
+ */
+public class Profiler {
+
+	private static final int HOT_ADDRESSES = 10; //addresses shown in the report
+
+	private long executions[];
+	private long microsteps[];
+	private ArrayList<String> labels;
+	private ArrayList<Integer> labelsAddresses;
+	private int sortedAddresses[]; //the labels addresses in ascending order
+	private int sortedLabels[]; //the index of the label of each sorted address
+	private long steps; //data put in the buses since the last command counted
+
+	private final ComponentListener listener = new ComponentListener() {
+		public void busPut(Bus bus, int data) {
+			steps++;
+		}
+		public void memoryRead(Memory memory, int position, int data) {
+		}
+		public void memoryStored(Memory memory, int position, int data) {
+		}
+		public void registerStored(Register register, int data) {
+		}
+	};
+
+	public Profiler(int size) {
+		executions = new long[size];
+		microsteps = new long[size];
+		setLabels(new ArrayList<String>(), new ArrayList<Integer>());
+	}
+
+	/**
+	 * This method returns the listener that counts the data put in the buses
+	 * @return
+	 */
+	ComponentListener getListener() {
+		return listener;
+	}
+
+	/**
+	 * This method counts a command executed in the address, with the microsteps
+	 * the listener got since the last command counted
+	 * @param address
+	 */
+	void count(int address) {
+		if (address >= 0 && address < executions.length) {
+			executions[address]++;
+			microsteps[address] += steps;
+		}
+		steps = 0;
+	}
+
+	public long getExecutions(int address) {
+		return executions[address];
+	}
+
+	public long getMicrosteps(int address) {
+		return microsteps[address];
+	}
+
+	public void reset() {
+		Arrays.fill(executions, 0);
+		Arrays.fill(microsteps, 0);
+	}
+
+	/**
+	 * This method sets the labels of the program: each one counts the addresses
+	 * from its own until the next label. The addresses are sorted once here,
+	 * so the label of an address is found by a binary search
+	 * @param labels
+	 * @param addresses the address of each label
+	 */
+	public void setLabels(List<String> labels, List<Integer> addresses) {
+		this.labels = new ArrayList<String>(labels);
+		this.labelsAddresses = new ArrayList<Integer>(addresses);
+		Integer order[] = new Integer[labelsAddresses.size()];
+		for (int i=0;i<order.length;i++)
+			order[i] = i;
+		Arrays.sort(order, new Comparator<Integer>() { //stable: the labels of the same address keep their order
+			public int compare(Integer a, Integer b) {
+				return Integer.compare(labelsAddresses.get(a), labelsAddresses.get(b));
+			}
+		});
+		sortedAddresses = new int[order.length];
+		sortedLabels = new int[order.length];
+		for (int i=0;i<order.length;i++) {
+			sortedAddresses[i] = labelsAddresses.get(order[i]);
+			sortedLabels[i] = order[i];
+		}
+	}
+
+	/**
+	 * This method returns the index of the label counting the address, or -1 if it is before all of them.
+	 * When many labels have the same address, it is the last one given
+	 * @param address
+	 * @return
+	 */
+	private int labelOf(int address) {
+		int position = Arrays.binarySearch(sortedAddresses, address);
+		if (position < 0)
+			position = -position-2; //the last address before it
+		while (position+1 < sortedAddresses.length && sortedAddresses[position+1] == address)
+			position++;
+		return position < 0 ? -1 : sortedLabels[position];
+	}
+
+	private String nameOf(int label) {
+		return label < 0 ? "(start)" : labels.get(label);
+	}
+
+	/**
+	 * This method returns the report of the counts, ranked by microsteps
+	 * @return
+	 */
+	public String report() {
+		long totalExecutions = 0, totalMicrosteps = 0;
+		final long labelExecutions[] = new long[labels.size()+1]; //the last one counts the addresses before all labels
+		final long labelMicrosteps[] = new long[labels.size()+1];
+		ArrayList<Integer> hot = new ArrayList<Integer>();
+		int addressLabels[] = new int[executions.length];
+
+		for (int address=0;address<executions.length;address++) {
+			if (executions[address] == 0)
+				continue;
+			int label = labelOf(address);
+			addressLabels[address] = label;
+			int index = label < 0 ? labels.size() : label;
+			labelExecutions[index] += executions[address];
+			labelMicrosteps[index] += microsteps[address];
+			totalExecutions += executions[address];
+			totalMicrosteps += microsteps[address];
+			hot.add(address);
+		}
+
+		ArrayList<Integer> ranked = new ArrayList<Integer>();
+		for (int i=0;i<labelExecutions.length;i++) {
+			if (labelExecutions[i] > 0)
+				ranked.add(i);
+		}
+		Collections.sort(ranked, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Long.compare(labelMicrosteps[b], labelMicrosteps[a]);
+			}
+		});
+		Collections.sort(hot, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Long.compare(microsteps[b], microsteps[a]);
+			}
+		});
+
+		StringBuilder report = new StringBuilder();
+		report.append("Profile: ").append(totalExecutions).append(" commands, ").append(totalMicrosteps).append(" microsteps\n");
+		report.append(String.format("%-20s %12s %12s %7s%n", "label", "commands", "microsteps", "%"));
+		for (int index : ranked) {
+			report.append(String.format("%-20s %12d %12d %6.1f%%%n", nameOf(index == labels.size() ? -1 : index),
+					labelExecutions[index], labelMicrosteps[index], percent(labelMicrosteps[index], totalMicrosteps)));
+		}
+		report.append(String.format("%-20s %12s %12s %7s%n", "address", "commands", "microsteps", "%"));
+		for (int i=0;i<hot.size() && i<HOT_ADDRESSES;i++) {
+			int address = hot.get(i);
+			int label = addressLabels[address];
+			String where = label < 0 ? Integer.toString(address) : address+" ("+labels.get(label)+"+"+(address-labelsAddresses.get(label))+")";
+			report.append(String.format("%-20s %12d %12d %6.1f%%%n", where, executions[address], microsteps[address],
+					percent(microsteps[address], totalMicrosteps)));
+		}
+		return report.toString();
+	}
+
+	private static double percent(long part, long total) {
+		return total == 0 ? 0 : 100.0*part/total;
+	}
+}
@@ -0,0 +1,291 @@
+package architecture;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import components.Storage;
+
+/**
+ * This class records the execution of an architecture (see Architecture.startRecording), so it can be
+ * brought back to the state after any command recorded (Architecture.replayTo and stepBack).
+ * For each command, a log keeps the registers, flags and memory positions it wrote, as pairs
+ * (where, data) ended by a MARKER: the memory positions are kept as they are and the other
+ * values of the state as -1-index: the registers, then the flags bits, the halt, the buses,
+ * the demux and the status memory positions (see Architecture.recordValues), so the state
+ * reached is the whole MachineState.
+ * Every interval commands, a full MachineState (a checkpoint) is kept too, so a state is
+ * reached by restoring the nearest checkpoint before it and writing the log from there.
+ * The log is a ring: when the budget is used, the oldest checkpoints and their logs are dropped
+ */
+public class Recorder {
+
+	public static final int MARKER = Integer.MIN_VALUE; //the end of a command in the log
+
+	private static class Checkpoint {
+		private long count;
+		private long logPosition;
+		private MachineState state;
+
+		private Checkpoint(long count, long logPosition, MachineState state) {
+			this.count = count;
+			this.logPosition = logPosition;
+			this.state = state;
+		}
+	}
+
+	private int interval;
+	private int maxCheckpoints;
+	private int log[];
+	private long logStart; //the positions of the log kept are [logStart, logEnd), in the ring
+	private long logEnd;
+	private ArrayDeque<Checkpoint> checkpoints;
+	private long count; //commands recorded
+
+	private int last[];    //the values that are not memory positions after the last command
+	private int writes[];  //the memory positions written by the current command, pairs (position, data)
+	private int numWrites;
+	private boolean paused;
+	private Storage storage;
+
+	/**
+	 * The budget is divided between the checkpoints and the log, but at least one checkpoint is kept
+	 * @param interval commands between the checkpoints
+	 * @param budget amount of int words the recording can keep
+	 * @param checkpointWords amount of words of a checkpoint
+	 */
+	Recorder(int interval, int budget, int checkpointWords) {
+		if (interval <= 0 || budget <= 0)
+			throw new IllegalArgumentException("the interval and the budget must be positive");
+		this.interval = interval;
+		maxCheckpoints = Math.max(1, budget/2/checkpointWords);
+		log = new int[Math.max(budget - maxCheckpoints*checkpointWords, budget/2)];
+		checkpoints = new ArrayDeque<Checkpoint>();
+		writes = new int[16];
+	}
+
+	/**
+	 * This method returns how many commands were recorded: the state of the architecture
+	 * is the one after them
+	 * @return
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * This method returns the first command count that can still be reached
+	 * @return
+	 */
+	public long getFirstCount() {
+		return checkpoints.getFirst().count;
+	}
+
+	public int getCheckpoints() {
+		return checkpoints.size();
+	}
+
+	/**
+	 * This method returns how many words of the log are in use
+	 * @return
+	 */
+	public long getLogSize() {
+		return logEnd - logStart;
+	}
+
+	/**
+	 * This method starts the recording again from a state
+	 * @param state
+	 * @param values the values of the state that are not memory positions
+	 */
+	void start(MachineState state, int values[]) {
+		count = 0;
+		logStart = logEnd = 0;
+		checkpoints.clear();
+		checkpoints.add(new Checkpoint(0, 0, state));
+		last = values.clone();
+		numWrites = 0;
+	}
+
+	/**
+	 * This method returns a storage that sends the positions written to this recorder
+	 * @param storage
+	 * @return
+	 */
+	Storage wrap(Storage storage) {
+		this.storage = storage;
+		return new RecordingStorage();
+	}
+
+	Storage getStorage() {
+		return storage;
+	}
+
+	/**
+	 * While the recording is paused, the positions written are not logged
+	 * @param paused
+	 */
+	void setPaused(boolean paused) {
+		this.paused = paused;
+	}
+
+	private void written(int position, int data) {
+		if (paused)
+			return;
+		if (numWrites+2 > writes.length)
+			writes = Arrays.copyOf(writes, writes.length*2);
+		writes[numWrites++] = position;
+		writes[numWrites++] = data;
+	}
+
+	private void append(int word) {
+		log[(int) (logEnd % log.length)] = word;
+		logEnd++;
+	}
+
+	/**
+	 * This method logs what the command executed has written
+	 * @param values the values of the state after the command that are not memory positions
+	 * @return true if a checkpoint must be taken now
+	 */
+	boolean commandExecuted(int values[]) {
+		int need = numWrites + 1;
+		for (int i=0;i<values.length;i++) {
+			if (values[i] != last[i])
+				need += 2;
+		}
+		count++;
+
+		//the oldest checkpoints are dropped to make room. A command that does not fit
+		//even alone drops all of them, and a checkpoint after it starts the log again
+		while (logEnd + need - logStart > log.length && checkpoints.size() > 1) {
+			checkpoints.removeFirst();
+			logStart = checkpoints.getFirst().logPosition;
+		}
+		if (logEnd + need - logStart > log.length) {
+			checkpoints.clear();
+			logStart = logEnd;
+			numWrites = 0;
+			System.arraycopy(values, 0, last, 0, values.length);
+			return true;
+		}
+
+		for (int i=0;i<values.length;i++) {
+			if (values[i] != last[i]) {
+				append(-1-i);
+				append(values[i]);
+				last[i] = values[i];
+			}
+		}
+		for (int i=0;i<numWrites;i++)
+			append(writes[i]);
+		append(MARKER);
+		numWrites = 0;
+		return count % interval == 0;
+	}
+
+	/**
+	 * This method keeps the state after the last command as a checkpoint
+	 * @param state
+	 */
+	void checkpoint(MachineState state) {
+		checkpoints.addLast(new Checkpoint(count, logEnd, state));
+		while (checkpoints.size() > maxCheckpoints) {
+			checkpoints.removeFirst();
+			logStart = checkpoints.getFirst().logPosition;
+		}
+	}
+
+	/**
+	 * This method returns the nearest checkpoint before the command count
+	 * @param target
+	 * @return
+	 * @throws IllegalArgumentException if the command is no longer recorded
+	 */
+	private Checkpoint checkpointFor(long target) {
+		if (target < 0 || target > count || checkpoints.isEmpty() || target < getFirstCount())
+			throw new IllegalArgumentException("the command "+target+" is not recorded");
+		Iterator<Checkpoint> it = checkpoints.descendingIterator();
+		Checkpoint checkpoint = it.next();
+		while (checkpoint.count > target)
+			checkpoint = it.next();
+		return checkpoint;
+	}
+
+	MachineState stateFor(long target) {
+		return checkpointFor(target).state;
+	}
+
+	/**
+	 * This method writes the log, from the checkpoint of stateFor(target), into the values
+	 * and the storage, until the state after target commands. The commands after it are
+	 * dropped from the recording: executing them again records them again
+	 * @param target
+	 * @param values the values of the checkpoint that are not memory positions
+	 */
+	void replay(long target, int values[]) {
+		Checkpoint checkpoint = checkpointFor(target);
+		long position = checkpoint.logPosition;
+		for (long c=checkpoint.count;c<target;c++) {
+			int where = log[(int) (position % log.length)];
+			while (where != MARKER) {
+				int data = log[(int) ((position+1) % log.length)];
+				if (where < 0)
+					values[-1-where] = data;
+				else
+					storage.set(where, data);
+				position += 2;
+				where = log[(int) (position % log.length)];
+			}
+			position++;
+		}
+
+		while (checkpoints.getLast().count > target)
+			checkpoints.removeLast();
+		logEnd = position;
+		count = target;
+		System.arraycopy(values, 0, last, 0, values.length);
+		numWrites = 0;
+	}
+
+	/**
+	 * This class keeps the positions in the storage of the memory, telling the recorder
+	 * which ones are written
+	 */
+	private class RecordingStorage implements Storage {
+
+		public int size() {
+			return storage.size();
+		}
+
+		public int get(int position) {
+			return storage.get(position);
+		}
+
+		public void set(int position, int data) {
+			storage.set(position, data);
+			written(position, data);
+		}
+
+		public void read(int position, int dest[], int offset, int length) {
+			storage.read(position, dest, offset, length);
+		}
+
+		public void write(int position, int src[], int offset, int length) {
+			storage.write(position, src, offset, length);
+			for (int i=0;i<length;i++)
+				written(position+i, src[offset+i]);
+		}
+
+		public Storage fork() {
+			return storage.fork();
+		}
+
+		/**
+		 * The array is not given, so every write is seen
+		 */
+		public int[] getArray() {
+			return null;
+		}
+	}
+}
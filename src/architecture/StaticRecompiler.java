@@ -0,0 +1,363 @@
+package architecture;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * This class translates an executable file (.dxb or .dxf, made by Assembler.makeExecutable) into
+ * a runnable jar, ahead of time. The jar has a class with a method for each basic block
+ * of the program (see BlockTranslator), a main that runs it from the address 0 and prints
+ * the registers and the memory at the end, the image of the memory (see writeImage) and the
+ * few classes it needs to run (AotEngine and its super classes), so it runs with no
+ * interpretation of the blocks and no warm-up.
+ * The memory size is read from the .dxb header; a .dxf has none, so it can be given after the jar.
+ * Usage: java architecture.StaticRecompiler program [program.jar] [memory size]
+ */
+public class StaticRecompiler {
+
+	public static final String CLASS_NAME = "Program";
+
+	private static final String ENGINE = "architecture/AotEngine";
+
+	private static final int DISPATCH_BITS = 10;
+	private static final int DISPATCH_SIZE = 1 << DISPATCH_BITS; //addresses in each dispatch method
+
+	//the classes copied from the class path into the jar
+	private static final String RUNTIME_CLASSES[] = {"architecture/AotEngine", "architecture/FunctionalEngine",
+													 "architecture/BlockRuntime", "architecture/DecodeCache",
+													 "components/Memory$StoreListener"};
+
+	private int memory[];
+	private int stackPosition;
+	private int stackLimit;
+	private ArrayList<Integer> blockStarts;
+
+	/**
+	 * @param memory the memory with the program, from the address 0
+	 * @param stackPosition
+	 */
+	public StaticRecompiler(int memory[], int stackPosition) {
+		this(memory, stackPosition, 0);
+	}
+
+	/**
+	 * @param memory the memory with the program, from the address 0
+	 * @param stackPosition
+	 * @param stackLimit the lowest position the stack can use
+	 */
+	public StaticRecompiler(int memory[], int stackPosition, int stackLimit) {
+		this.memory = memory;
+		this.stackPosition = stackPosition;
+		this.stackLimit = stackLimit;
+	}
+
+	/**
+	 * This method reads an executable file the same way Architecture.readExec does
+	 * @param filename without the .dxf extension
+	 * @param memorySize
+	 * @return
+	 * @throws IOException
+	 */
+	public static StaticRecompiler fromExec(String filename, int memorySize) throws IOException {
+		BufferedReader br = new BufferedReader(new FileReader(filename+".dxf"));
+		int memory[] = new int[memorySize];
+		int stackPosition = 0;
+		String linha;
+		int i=0, ok=0;
+
+		while((linha = br.readLine()) != null) {
+			if (ok!=-1) {
+				ok = Integer.parseInt(linha);
+				memory[i] = ok;
+				i++;
+			}
+			else
+				stackPosition = Integer.parseInt(linha);
+		}
+		br.close();
+		return new StaticRecompiler(memory, stackPosition, i); //the stack can grow down to the end of the program
+	}
+
+	/**
+	 * This method loads a binary executable (see ExecutableFile) into a memory of the size in its header
+	 * @param exec
+	 * @return
+	 * @throws IOException if a section does not fit in the memory or the program does not start in the address 0
+	 */
+	public static StaticRecompiler fromExecutable(ExecutableFile exec) throws IOException {
+		if (exec.getEntryPoint() != 0)
+			throw new IOException("the recompiled programs start in the address 0, not in "+exec.getEntryPoint());
+		int memory[] = new int[exec.getMemorySize()];
+		exec.load(memory);
+		int codeEnd = 0;
+		for (ExecutableFile.Section section : exec.getSections()) {
+			if (section.getType() == ExecutableFile.SECTION_CODE)
+				codeEnd = Math.max(codeEnd, section.getAddress()+section.getLength());
+		}
+		return new StaticRecompiler(memory, exec.getStackBase(), codeEnd);
+	}
+
+	/**
+	 * This method returns the addresses where the blocks of the last compiled class start
+	 * @return
+	 */
+	public ArrayList<Integer> getBlockStarts() {
+		return blockStarts;
+	}
+
+	/**
+	 * This method generates the class file of the program
+	 * @return
+	 */
+	public byte[] compileClass() {
+		ClassFileWriter writer = new ClassFileWriter(CLASS_NAME, ENGINE);
+		BlockTranslator translator = new BlockTranslator(memory);
+		boolean leaders[] = new boolean[memory.length];
+		boolean translated[] = new boolean[memory.length];
+		int stores[] = new int[memory.length];
+		ArrayList<Integer> pending = new ArrayList<Integer>();
+		int codeEnd = 0;
+
+		BlockTranslator.findLeaders(memory, leaders, 0);
+		for (int i=memory.length-1;i>=0;i--) {
+			if (leaders[i])
+				pending.add(i);
+		}
+
+		//one method for each block. The address after a block that does not jump starts another one
+		blockStarts = new ArrayList<Integer>();
+		while (!pending.isEmpty()) {
+			int start = pending.remove(pending.size()-1);
+			if (translated[start])
+				continue;
+			ClassFileWriter.Code code = writer.new Code();
+			int end = translator.translate(code, start, leaders);
+			if (end == start)
+				continue;
+			writer.addMethod(ClassFileWriter.ACC_PUBLIC | ClassFileWriter.ACC_FINAL, "b"+start, "([I[I)I", code, 4);
+			translated[start] = true;
+			stores[start] = translator.getStore();
+			blockStarts.add(start);
+			codeEnd = Math.max(codeEnd, end);
+			if (translator.fallsThrough() && end < memory.length)
+				pending.add(end);
+		}
+		Collections.sort(blockStarts);
+
+		addConstructor(writer, codeEnd);
+		addRunBlock(writer, stores);
+		addMain(writer);
+		return writer.toByteArray();
+	}
+
+	/**
+	 * This method adds the constructor, that receives the memory with the program
+	 * @param writer
+	 * @param codeEnd
+	 */
+	private void addConstructor(ClassFileWriter writer, int codeEnd) {
+		ClassFileWriter.Code code = writer.new Code();
+		code.aload(0);
+		code.aload(1);
+		code.iconst(codeEnd);
+		code.invoke(ClassFileWriter.INVOKESPECIAL, ENGINE, "<init>", "([II)V");
+		code.op(ClassFileWriter.RETURN);
+		writer.addMethod(ClassFileWriter.ACC_PUBLIC, "<init>", "([I)V", code, 2);
+	}
+
+	/**
+	 * This method writes the memory with the program, as AotEngine.readImage reads it.
+	 * Only the runs of words that are not zero are written
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeImage(OutputStream out) throws IOException {
+		DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+		data.writeInt(memory.length);
+		int i = 0;
+		while (i < memory.length) {
+			if (memory[i] == 0) {
+				i++;
+				continue;
+			}
+			int end = i;
+			while (end < memory.length && memory[end] != 0)
+				end++;
+			data.writeInt(i);
+			data.writeInt(end-i);
+			for (;i<end;i++)
+				data.writeInt(memory[i]);
+		}
+		data.writeInt(-1);
+		data.flush();
+	}
+
+	/**
+	 * This method adds runBlock. A method can not have more than 64 KB of bytecodes, so the blocks
+	 * are called by dispatch methods, one for each DISPATCH_SIZE addresses, and runBlock
+	 * only chooses the dispatch method of the pc with a lookupswitch
+	 * @param writer
+	 * @param stores
+	 */
+	private void addRunBlock(ClassFileWriter writer, int stores[]) {
+		ArrayList<Integer> chunks = new ArrayList<Integer>();
+		int first = 0;
+		while (first < blockStarts.size()) {
+			int chunk = blockStarts.get(first) / DISPATCH_SIZE;
+			int last = first;
+			while (last < blockStarts.size() && blockStarts.get(last) / DISPATCH_SIZE == chunk)
+				last++;
+			addDispatch(writer, chunk, blockStarts.subList(first, last), stores);
+			chunks.add(chunk);
+			first = last;
+		}
+
+		ClassFileWriter.Code code = writer.new Code();
+		int keys[] = new int[chunks.size()];
+		int labels[] = new int[chunks.size()];
+		int noBlock = code.newLabel();
+		for (int i=0;i<keys.length;i++) {
+			keys[i] = chunks.get(i);
+			labels[i] = code.newLabel();
+		}
+
+		code.iload(1);
+		code.iconst(DISPATCH_BITS);
+		code.op(ClassFileWriter.ISHR);
+		code.lookupswitch(keys, labels, noBlock);
+		for (int i=0;i<keys.length;i++) {
+			code.mark(labels[i]);
+			code.aload(0);
+			code.iload(1);
+			code.aload(2);
+			code.aload(3);
+			code.invoke(ClassFileWriter.INVOKEVIRTUAL, CLASS_NAME, "d"+keys[i], "(I[I[I)I");
+			code.op(ClassFileWriter.IRETURN);
+		}
+		code.mark(noBlock);
+		code.iconst(AotEngine.NO_BLOCK);
+		code.op(ClassFileWriter.IRETURN);
+		writer.addMethod(ClassFileWriter.ACC_PROTECTED, "runBlock", "(I[I[I)I", code, 4);
+	}
+
+	/**
+	 * This method adds a dispatch method: a lookupswitch over the pc calling the block methods
+	 * Locals: 1 is the pc, 2 the registers, 3 the memory and 4 keeps the next address
+	 * @param writer
+	 * @param chunk the addresses of the method, divided by DISPATCH_SIZE
+	 * @param starts the blocks starting in these addresses
+	 * @param stores
+	 */
+	private void addDispatch(ClassFileWriter writer, int chunk, List<Integer> starts, int stores[]) {
+		ClassFileWriter.Code code = writer.new Code();
+		int keys[] = new int[starts.size()];
+		int labels[] = new int[starts.size()];
+		int noBlock = code.newLabel();
+		for (int i=0;i<keys.length;i++) {
+			keys[i] = starts.get(i);
+			labels[i] = code.newLabel();
+		}
+
+		code.iload(1);
+		code.lookupswitch(keys, labels, noBlock);
+		for (int i=0;i<keys.length;i++) {
+			code.mark(labels[i]);
+			code.aload(0);
+			code.aload(2);
+			code.aload(3);
+			code.invoke(ClassFileWriter.INVOKEVIRTUAL, CLASS_NAME, "b"+keys[i], "([I[I)I");
+			if (stores[keys[i]] != BlockRuntime.NO_STORE) {
+				code.istore(4);
+				code.aload(0);
+				code.iconst(stores[keys[i]]);
+				code.invoke(ClassFileWriter.INVOKEVIRTUAL, CLASS_NAME, "blockStored", "(I)V");
+				code.iload(4);
+			}
+			code.op(ClassFileWriter.IRETURN);
+		}
+		code.mark(noBlock);
+		code.iconst(AotEngine.NO_BLOCK);
+		code.op(ClassFileWriter.IRETURN);
+		writer.addMethod(ClassFileWriter.ACC_PUBLIC | ClassFileWriter.ACC_FINAL, "d"+chunk, "(I[I[I)I", code, 5);
+	}
+
+	/**
+	 * This method adds the main, that reads the memory from the image in the jar and runs the program
+	 * @param writer
+	 */
+	private void addMain(ClassFileWriter writer) {
+		ClassFileWriter.Code code = writer.new Code();
+		code.newObject(CLASS_NAME);
+		code.op(ClassFileWriter.DUP);
+		code.invoke(ClassFileWriter.INVOKESTATIC, ENGINE, "readImage", "()[I");
+		code.invoke(ClassFileWriter.INVOKESPECIAL, CLASS_NAME, "<init>", "([I)V");
+		code.iconst(stackPosition);
+		code.iconst(stackLimit);
+		code.invoke(ClassFileWriter.INVOKEVIRTUAL, CLASS_NAME, "execute", "(II)V");
+		code.op(ClassFileWriter.RETURN);
+		writer.addMethod(ClassFileWriter.ACC_PUBLIC | ClassFileWriter.ACC_STATIC, "main", "([Ljava/lang/String;)V", code, 1);
+	}
+
+	/**
+	 * This method writes the runnable jar with the program class and the classes it needs
+	 * @param filename
+	 * @throws IOException
+	 */
+	public void writeJar(String filename) throws IOException {
+		Manifest manifest = new Manifest();
+		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, CLASS_NAME);
+		JarOutputStream jar = new JarOutputStream(new FileOutputStream(filename), manifest);
+		try {
+			jar.putNextEntry(new JarEntry(CLASS_NAME+".class"));
+			jar.write(compileClass());
+			jar.closeEntry();
+			jar.putNextEntry(new JarEntry(AotEngine.IMAGE));
+			writeImage(jar);
+			jar.closeEntry();
+			for (String name : RUNTIME_CLASSES) {
+				InputStream in = StaticRecompiler.class.getClassLoader().getResourceAsStream(name+".class");
+				if (in == null)
+					throw new IOException("class "+name+" not found in the class path");
+				jar.putNextEntry(new JarEntry(name+".class"));
+				byte buffer[] = new byte[4096];
+				int n;
+				while ((n = in.read(buffer)) > 0)
+					jar.write(buffer, 0, n);
+				in.close();
+				jar.closeEntry();
+			}
+		} finally {
+			jar.close();
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.out.println("Usage: java architecture.StaticRecompiler program [program.jar] [memory size]");
+			return;
+		}
+		String output = args.length > 1 ? args[1] : args[0]+".jar";
+		StaticRecompiler recompiler;
+		if (new File(args[0]+ExecutableFile.EXTENSION).exists())
+			recompiler = fromExecutable(ExecutableFile.read(args[0]));
+		else
+			recompiler = fromExec(args[0], args.length > 2 ? Integer.parseInt(args[2]) : Architecture.DEFAULT_MEMORY_SIZE);
+		recompiler.writeJar(output);
+		System.out.println(recompiler.getBlockStarts().size()+" blocks written to "+output);
+	}
+}
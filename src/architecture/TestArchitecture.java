@@ -1,10 +1,17 @@
 package architecture;
 
 import static org.junit.Assert.*;
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import org.junit.Test;
+import components.Bus;
+import components.ComponentListener;
+import components.DenseStorage;
 import components.Memory;
+import components.PagedStorage;
+import components.Register;
 
 public class TestArchitecture {
 	
@@ -1189,6 +1196,165 @@ public class TestArchitecture {
 		assertTrue("ret".equals(commands.get(21)));
 	}
 	
+	@Test
+	public void testDecodeCache() {
+		int program[] = {11, 5, 0,     //move 5 %RPG0
+						 11, 0, 1,     //move 0 %RPG1
+						 3, 1, 1,      //laco: add 1 %RPG1
+						 18, 0, 1, 6,  //jgt %RPG0 %RPG1 laco
+						 9, 1, 40,     //move %RPG1 40
+						 -1};
+		Architecture arch = new Architecture();
+		Architecture cached = new Architecture();
+		cached.setDecodeCache(true);
+		loadProgram(arch, program, 100);
+		loadProgram(cached, program, 100);
+
+		arch.controlUnitEexec();
+		cached.controlUnitEexec();
+
+		//both executions must finish in the same state
+		for (int i=0;i<arch.getRegistersList().size();i++)
+			assertEquals(arch.getRegistersList().get(i).getData(), cached.getRegistersList().get(i).getData());
+		assertEquals(arch.getFlags().getBit(0), cached.getFlags().getBit(0));
+		assertEquals(arch.getFlags().getBit(1), cached.getFlags().getBit(1));
+		assertEquals(5, cached.getMemory().getDataList()[40]);
+		assertEquals(16, cached.getPC().getData());
+
+		//the jgt command was decoded with its three operands
+		assertTrue(cached.getDecodeCache().contains(9));
+		assertEquals(18, cached.getDecodeCache().getCommand(9));
+		assertEquals(6, cached.getDecodeCache().getOperand(9, 2));
+
+		//storing into the jgt target operand drops the decoded command
+		cached.getExtbus1().put(12);
+		cached.getMemory().store();
+		cached.getExtbus1().put(0);
+		cached.getMemory().store();
+		assertFalse(cached.getDecodeCache().contains(9));
+		assertTrue(cached.getDecodeCache().contains(6));
+
+		//in a big sparse memory, only the pages with the commands executed are allocated
+		int size = 1 << 24;
+		Architecture big = new Architecture(false, ExecutionMode.MICROPROGRAM, new PagedStorage(size));
+		big.setDecodeCache(true);
+		loadProgram(big, program, size-1);
+		big.controlUnitEexec();
+		assertEquals(5, big.getMemory().getData(40));
+		assertEquals(1, big.getDecodeCache().getAllocatedPages());
+
+		//a fork shares the decoded commands until it changes them
+		Architecture fork = big.fork();
+		assertEquals(0, fork.getDecodeCache().getAllocatedPages());
+		assertTrue(fork.getDecodeCache().contains(9));
+		fork.getExtbus1().put(12);
+		fork.getMemory().store();
+		fork.getExtbus1().put(0);
+		fork.getMemory().store();
+		assertFalse(fork.getDecodeCache().contains(9));
+		assertEquals(1, fork.getDecodeCache().getAllocatedPages());
+		assertTrue(big.getDecodeCache().contains(9));
+
+		//a command whose operands are in the next page is dropped by a store into them
+		DecodeCache cache = new DecodeCache(size);
+		PagedStorage words = new PagedStorage(size);
+		int address = DecodeCache.PAGE_SIZE-1;
+		words.set(address, 13);   //jmp
+		words.set(address+1, 7);
+		cache.decode(address, words);
+		assertEquals(1, cache.getAllocatedPages());
+		assertEquals(7, cache.getOperand(address, 0));
+		cache.stored(address+1);
+		assertFalse(cache.contains(address));
+		cache.clear();
+		assertEquals(0, cache.getAllocatedPages());
+	}
+
+	@Test
+	public void testFunctionalMode() {
+		int program[] = {11, 5, 0,     //move 5 %RPG0
+						 11, 0, 1,     //move 0 %RPG1
+						 3, 1, 1,      //laco: add 1 %RPG1
+						 18, 0, 1, 6,  //jgt %RPG0 %RPG1 laco
+						 9, 1, 40,     //move %RPG1 40
+						 20, 22,       //call sub
+						 2, 0, 40,     //add %RPG0 40
+						 -1,
+						 7, 3, 0,      //sub: sub 3 %RPG0
+						 21};          //ret
+		Architecture arch = new Architecture();
+		Architecture functional = new Architecture(false, ExecutionMode.FUNCTIONAL);
+		loadProgram(arch, program, 100);
+		loadProgram(functional, program, 100);
+
+		arch.controlUnitEexec();
+		functional.controlUnitEexec();
+
+		//both executions must finish in the same state
+		for (int i=0;i<arch.getRegistersList().size();i++)
+			assertEquals(arch.getRegistersList().get(i).getData(), functional.getRegistersList().get(i).getData());
+		assertEquals(arch.getFlags().getBit(0), functional.getFlags().getBit(0));
+		assertEquals(arch.getFlags().getBit(1), functional.getFlags().getBit(1));
+		//the free stack positions keep what was popped from them (the microprograms also push the PC)
+		for (int i=0;i<arch.getMemorySize();i++) {
+			if (i < arch.getStackLimit().getData() || i > arch.getStackTop().getData())
+				assertEquals(arch.getMemory().getDataList()[i], functional.getMemory().getDataList()[i]);
+		}
+
+		//RPG0 = 3-5 and the memory position 40 = -2+5
+		assertEquals(-2, functional.getRPG().getData());
+		assertEquals(3, functional.getMemory().getDataList()[40]);
+		assertEquals(21, functional.getPC().getData());
+		assertEquals(100, functional.getStackTop().getData());
+	}
+
+	/**
+	 * This method stores the program from the address 0 and initializes the stack,
+	 * that can grow down to the end of the program
+	 * @param arch
+	 * @param program
+	 * @param stack
+	 */
+	private void loadProgram(Architecture arch, int program[], int stack) {
+		for (int i=0;i<program.length;i++)
+			arch.getMemory().setData(i, program[i]);
+		arch.initializeStack(stack, program.length);
+	}
+
+	@Test
+	public void testPagedMemory() {
+		int size = 1 << 22;
+		int program[] = {11, 5, 0,       //move 5 %RPG0
+						 11, 0, 1,       //move 0 %RPG1
+						 3, 1, 1,        //laco: add 1 %RPG1
+						 18, 0, 1, 6,    //jgt %RPG0 %RPG1 laco
+						 9, 1, size-1,   //move %RPG1 var (the last memory position)
+						 20, 22,         //call sub
+						 2, 0, size-1,   //add %RPG0 var
+						 -1,
+						 7, 3, 0,        //sub: sub 3 %RPG0
+						 21};            //ret
+		PagedStorage storage = new PagedStorage(size);
+		Architecture arch = new Architecture(false, ExecutionMode.MICROPROGRAM, storage);
+		assertEquals(size, arch.getMemorySize());
+		loadProgram(arch, program, size-2);
+
+		arch.controlUnitEexec();
+
+		assertEquals(-2, arch.getRPG().getData());
+		assertEquals(3, arch.getMemory().getData(size-1));
+		assertEquals(21, arch.getPC().getData());
+		assertEquals(size-2, arch.getStackTop().getData());
+		assertEquals(2, storage.getAllocatedPages()); //the program and the variable/stack pages
+
+		//the engines work on the memory array
+		try {
+			new Architecture(false, ExecutionMode.FUNCTIONAL, new PagedStorage(size));
+			fail("the functional mode was created with a paged memory");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
 	@Test
 	public void testReadExec() throws IOException {
 		Architecture arch = new Architecture();
@@ -1202,4 +1368,556 @@ public class TestArchitecture {
 		assertEquals(1, arch.getMemory().getDataList()[4]);
 		assertEquals(0, arch.getMemory().getDataList()[5]);
 	}
+
+	@Test
+	public void testReadBinaryExec() throws IOException {
+		Architecture arch = new Architecture();
+		File file = File.createTempFile("testBinary", ExecutableFile.EXTENSION);
+		String filename = file.getPath().substring(0, file.getPath().length()-ExecutableFile.EXTENSION.length());
+		ExecutableFile exec = new ExecutableFile(2, 120, arch.getMemorySize());
+		exec.addSection(ExecutableFile.SECTION_CODE, 0, new int[] {5, 4, 3, 2, 1, 0, -1});
+		exec.addSection(ExecutableFile.SECTION_DATA, 100, new int[] {7, 8});
+		exec.write(filename);
+
+		arch.readBinaryExec(filename);
+		file.delete();
+
+		assertEquals(5, arch.getMemory().getDataList()[0]);
+		assertEquals(4, arch.getMemory().getDataList()[1]);
+		assertEquals(3, arch.getMemory().getDataList()[2]);
+		assertEquals(0, arch.getMemory().getDataList()[5]);
+		assertEquals(-1, arch.getMemory().getDataList()[6]);
+		assertEquals(7, arch.getMemory().getDataList()[100]);
+		assertEquals(8, arch.getMemory().getDataList()[101]);
+		assertEquals(2, arch.getPC().getData());
+		assertEquals(120, arch.getStackTop().getData());
+		assertEquals(120, arch.getStackBotton().getData());
+	}
+
+	@Test
+	public void testSnapshotRestore() {
+		int program[] = {11, 5, 0,     //move 5 %RPG0
+						 11, 0, 1,     //move 0 %RPG1
+						 3, 1, 1,      //laco: add 1 %RPG1
+						 18, 0, 1, 6,  //jgt %RPG0 %RPG1 laco
+						 9, 1, 40,     //move %RPG1 40
+						 20, 22,       //call sub
+						 2, 0, 40,     //add %RPG0 40
+						 -1,
+						 7, 3, 0,      //sub: sub 3 %RPG0
+						 21};          //ret
+		for (ExecutionMode mode : new ExecutionMode[] {ExecutionMode.MICROPROGRAM, ExecutionMode.FUNCTIONAL}) {
+			Architecture arch = new Architecture(false, mode);
+			arch.setDecodeCache(true);
+			loadProgram(arch, program, 100);
+			MachineState initial = arch.snapshot();
+			assertEquals(11, initial.getMemoryData(0));
+			assertEquals(100, initial.getRegister(8));
+
+			arch.controlUnitEexec();
+			assertEquals(-2, arch.getRPG().getData());
+			assertEquals(3, arch.getMemory().getData(40));
+			MachineState end = arch.snapshot();
+
+			//back to the initial state, also changing the loop limit
+			arch.restore(initial);
+			assertEquals(0, arch.getRPG().getData());
+			assertEquals(0, arch.getMemory().getData(40));
+			assertEquals(0, arch.getPC().getData());
+			assertEquals(100, arch.getStackTop().getData());
+			arch.getMemory().setData(1, 8);
+			arch.controlUnitEexec();
+			assertEquals(3-8, arch.getRPG().getData());
+			assertEquals(-5+8, arch.getMemory().getData(40));
+
+			//the states do not change and can be restored again
+			arch.restore(end);
+			assertEquals(-2, arch.getRPG().getData());
+			assertEquals(5, arch.getMemory().getData(1));
+			assertEquals(end.getFlagBit(0), arch.getFlags().getBit(0));
+			assertEquals(end.getFlagBit(1), arch.getFlags().getBit(1));
+			assertTrue(end.isHalted());
+			assertEquals(5, initial.getMemoryData(1));
+		}
+
+		//the memory sizes must be the same
+		try {
+			new Architecture(false, ExecutionMode.MICROPROGRAM, 256).restore(new Architecture().snapshot());
+			fail("a state was restored into a memory of other size");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void testFork() {
+		int size = 1 << 22;
+		int program[] = {11, 0, 1,       //move 0 %RPG1
+						 3, 1, 1,        //laco: add 1 %RPG1
+						 18, 0, 1, 3,    //jgt %RPG0 %RPG1 laco
+						 9, 1, size-1,   //move %RPG1 var (the last memory position)
+						 -1};
+		PagedStorage storage = new PagedStorage(size);
+		Architecture arch = new Architecture(false, ExecutionMode.MICROPROGRAM, storage);
+		loadProgram(arch, program, size-2);
+		arch.getMemory().setData(size-1, 99);
+		assertEquals(2, storage.getAllocatedPages());
+
+		//each fork runs the loop with other limit in RPG0
+		Architecture forks[] = new Architecture[3];
+		for (int i=0;i<forks.length;i++) {
+			forks[i] = arch.fork();
+			forks[i].getRPG().setData(10*(i+1));
+		}
+		for (Architecture fork : forks) {
+			assertEquals(size-2, fork.getStackTop().getData());
+			fork.controlUnitEexec();
+		}
+		for (int i=0;i<forks.length;i++) {
+			assertEquals(10*(i+1), forks[i].getRPG1().getData());
+			assertEquals(10*(i+1), forks[i].getMemory().getData(size-1));
+			PagedStorage forkStorage = (PagedStorage) forks[i].getMemory().getStorage();
+			assertEquals(1, forkStorage.getAllocatedPages()); //only the variable page was copied
+			assertEquals(1, forkStorage.getSharedPages());    //the program page
+		}
+
+		//restoring a fork keeps sharing the pages the state does not change
+		forks[0].restore(arch.snapshot());
+		assertEquals(99, forks[0].getMemory().getData(size-1));
+		PagedStorage restored = (PagedStorage) forks[0].getMemory().getStorage();
+		assertEquals(1, restored.getAllocatedPages());
+		assertEquals(1, restored.getSharedPages());
+
+		//the forked architecture is not changed
+		assertEquals(99, arch.getMemory().getData(size-1));
+		assertEquals(0, arch.getRPG1().getData());
+		assertEquals(0, arch.getPC().getData());
+
+		//the dense memories are copied
+		Architecture functional = new Architecture(false, ExecutionMode.FUNCTIONAL);
+		loadProgram(functional, program, 100);
+		functional.getRPG().setData(7);
+		Architecture fork = functional.fork();
+		fork.getMemory().setData(0, 12);
+		assertEquals(ExecutionMode.FUNCTIONAL, fork.getExecutionMode());
+		assertEquals(11, functional.getMemory().getData(0));
+		assertEquals(7, fork.getRPG().getData());
+	}
+
+	@Test
+	public void testStackLimit() {
+		Architecture arch = new Architecture();
+		arch.initializeStack(10, 8);
+		assertEquals(8, arch.getStackLimit().getData());
+		arch.getMemory().setData(9, 55); //a value in the stack area does not make it full
+
+		for (int i=1;i<=3;i++) {
+			arch.getIntbus2().put(i);
+			assertTrue(arch.setDataStackTop());
+		}
+		assertEquals(7, arch.getStackTop().getData());
+		arch.getIntbus2().put(4);
+		assertFalse(arch.setDataStackTop()); //below the limit
+		assertEquals(7, arch.getStackTop().getData());
+		assertEquals(2, arch.getMemory().getData(9));
+
+		for (int i=3;i>=1;i--) {
+			assertTrue(arch.getDataStackTop());
+			assertEquals(i, arch.getIntbus2().get());
+		}
+		assertFalse(arch.getDataStackTop()); //empty
+		assertEquals(10, arch.getStackTop().getData());
+		assertEquals(1, arch.getMemory().getData(10)); //the popped positions are not cleared
+	}
+
+	@Test
+	public void testMarMicroprograms() {
+		int program[] = {11, 7, 0,      //move 7 %RPG0
+						 9, 0, 110,     //move %RPG0 110
+						 3, 5, 1,       //add 5 %RPG1
+						 1, 110, 1,     //add 110 %RPG1
+						 2, 1, 110,     //add %RPG1 110
+						 7, 20, 1,      //sub 20 %RPG1
+						 5, 110, 1,     //sub 110 %RPG1
+						 6, 0, 110,     //sub %RPG0 110
+						 8, 110, 2,     //move 110 %RPG2
+						 -1};
+		Architecture arch = new Architecture();
+		Architecture mar = new Architecture();
+		mar.setMarMicroprograms(true);
+		assertTrue(mar.getMarMicroprograms());
+		loadProgram(arch, program, 100);
+		loadProgram(mar, program, 100);
+		Counter counter = new Counter();
+		Counter archCounter = new Counter();
+		mar.addListener(counter);
+		arch.addListener(archCounter);
+
+		arch.controlUnitEexec();
+		mar.controlUnitEexec();
+
+		//no stack spills: 2 memory accesses less for each command with a memory operand or an immediate
+		assertEquals(archCounter.accesses() - 2*7, counter.accesses());
+		assertTrue(counter.puts < archCounter.puts);
+
+		//RPG1 = 5, 5+7, 20-12, 19-8 and the variable = 7, 12+7, 7-19
+		assertEquals(11, mar.getRPG1().getData());
+		assertEquals(-12, mar.getRPG2().getData());
+		assertEquals(-12, mar.getMemory().getData(110));
+		for (int i=0;i<arch.getRegistersList().size();i++)
+			assertEquals(arch.getRegistersList().get(i).getData(), mar.getRegistersList().get(i).getData());
+		assertEquals(arch.getFlags().getBit(0), mar.getFlags().getBit(0));
+		assertEquals(arch.getFlags().getBit(1), mar.getFlags().getBit(1));
+
+		//the MAR microprograms never use the stack
+		for (int i=0;i<arch.getMemorySize();i++) {
+			if (i < program.length || i > 100)
+				assertEquals(arch.getMemory().getData(i), mar.getMemory().getData(i));
+			else
+				assertEquals(0, mar.getMemory().getData(i));
+		}
+
+	}
+
+	@Test
+	public void testListener() {
+		int program[] = {11, 7, 0,      //move 7 %RPG0
+						 9, 0, 110,     //move %RPG0 110
+						 3, 5, 1,       //add 5 %RPG1
+						 -1};
+		final long counts[] = new long[4]; //bus puts, memory reads, memory stores, registers stores
+		final ArrayList<String> events = new ArrayList<String>();
+		ComponentListener listener = new ComponentListener() {
+			public void busPut(Bus bus, int data) {
+				counts[0]++;
+			}
+			public void memoryRead(Memory memory, int position, int data) {
+				counts[1]++;
+			}
+			public void memoryStored(Memory memory, int position, int data) {
+				counts[2]++;
+				events.add("memory "+position+" "+data);
+			}
+			public void registerStored(Register register, int data) {
+				counts[3]++;
+				events.add(register.getRegisterName()+" "+data);
+			}
+		};
+		Architecture arch = new Architecture();
+		Architecture listened = new Architecture(false, ExecutionMode.MICROPROGRAM, new DenseStorage(Architecture.DEFAULT_MEMORY_SIZE), listener);
+		loadProgram(arch, program, 100);
+		loadProgram(listened, program, 100);
+		Counter counter = new Counter();
+		listened.addListener(counter);
+
+		arch.controlUnitEexec();
+		listened.controlUnitEexec();
+
+		//both listeners get each put and each memory access through the bus
+		//(the stack positions are accessed without it, so they are not listened)
+		long transfers = counter.puts;
+		assertTrue(transfers > 0);
+		assertEquals(transfers, counts[0]);
+		assertEquals(counter.reads, counts[1]);
+		assertEquals(counter.stores, counts[2]);
+		assertTrue(counts[1] > 0);
+		assertTrue(events.contains("memory 110 7"));
+		assertTrue(events.contains("RPG0 7"));
+		assertTrue(events.contains("RPG1 5"));
+		assertTrue(events.contains("PC 9")); //the jump to the end of the program
+
+		//the listeners do not change the execution
+		for (int i=0;i<arch.getRegistersList().size();i++)
+			assertEquals(arch.getRegistersList().get(i).getData(), listened.getRegistersList().get(i).getData());
+		for (int i=0;i<arch.getMemorySize();i++)
+			assertEquals(arch.getMemory().getData(i), listened.getMemory().getData(i));
+
+		//the components used out of an execution make no events
+		listened.getExtbus1().put(1);
+		assertEquals(transfers, counts[0]);
+
+		//the forks keep the listeners
+		Architecture fork = listened.fork();
+		counts[0] = 0;
+		fork.getPC().setData(0);
+		fork.controlUnitEexec();
+		assertEquals(transfers, counts[0]);
+	}
+
+	@Test
+	public void testRunUntilBreak() {
+		int program[] = {11, 5, 0,      //move 5 %RPG0
+						 11, 0, 1,      //move 0 %RPG1
+						 3, 1, 1,       //laco: add 1 %RPG1
+						 9, 1, 110,     //move %RPG1 110
+						 8, 110, 2,     //move 110 %RPG2
+						 18, 0, 1, 6,   //jgt %RPG0 %RPG1 laco
+						 -1};
+		Breakpoints breakpoints = new Breakpoints(Architecture.DEFAULT_MEMORY_SIZE);
+		Architecture arch = new Architecture();
+		loadProgram(arch, program, 100);
+
+		//the breakpoint stops before the command in its address, once in each loop
+		breakpoints.setBreakpoint(9, true);
+		assertTrue(breakpoints.isBreakpoint(9));
+		assertTrue(arch.runUntilBreak(breakpoints));
+		assertEquals(Breakpoints.Hit.BREAKPOINT, breakpoints.getHit());
+		assertEquals(9, breakpoints.getHitPosition());
+		assertEquals(9, arch.getPC().getData());
+		assertEquals(1, arch.getRPG1().getData());
+		assertTrue(arch.runUntilBreak(breakpoints));
+		assertEquals(9, arch.getPC().getData());
+		assertEquals(2, arch.getRPG1().getData());
+		breakpoints.setBreakpoint(9, false);
+
+		//the watchpoints stop after the command that stored or read the position
+		breakpoints.setWriteWatchpoint(110, true);
+		assertTrue(arch.runUntilBreak(breakpoints));
+		assertEquals(Breakpoints.Hit.WRITE_WATCHPOINT, breakpoints.getHit());
+		assertEquals(110, breakpoints.getHitPosition());
+		assertEquals(2, arch.getMemory().getData(110));
+		assertEquals(12, arch.getPC().getData());
+		breakpoints.setWriteWatchpoint(110, false);
+		breakpoints.setReadWatchpoint(110, true);
+		assertTrue(arch.runUntilBreak(breakpoints));
+		assertEquals(Breakpoints.Hit.READ_WATCHPOINT, breakpoints.getHit());
+		assertEquals(2, arch.getRPG2().getData());
+		assertEquals(15, arch.getPC().getData());
+		breakpoints.setReadWatchpoint(110, false);
+
+		//the register condition stops when the register gets the value
+		breakpoints.setRegisterCondition(1, 4);
+		assertTrue(arch.runUntilBreak(breakpoints));
+		assertEquals(Breakpoints.Hit.REGISTER_CONDITION, breakpoints.getHit());
+		assertEquals(1, breakpoints.getHitPosition());
+		assertEquals(4, arch.getRPG1().getData());
+		assertEquals(9, arch.getPC().getData());
+
+		//with no more breaks the program ends as usual
+		breakpoints.clear();
+		assertFalse(arch.runUntilBreak(breakpoints));
+		assertEquals(Breakpoints.Hit.NONE, breakpoints.getHit());
+		assertEquals(5, arch.getRPG1().getData());
+		assertEquals(5, arch.getRPG2().getData());
+
+		//the operands given by the decode cache are watched as if they were read again
+		Architecture cached = new Architecture();
+		cached.setDecodeCache(true);
+		loadProgram(cached, program, 100);
+		breakpoints.setReadWatchpoint(7, true);
+		assertTrue(cached.runUntilBreak(breakpoints));
+		assertEquals(Breakpoints.Hit.READ_WATCHPOINT, breakpoints.getHit());
+		assertEquals(7, breakpoints.getHitPosition());
+		assertEquals(1, cached.getRPG1().getData());
+		assertTrue(cached.runUntilBreak(breakpoints));
+		assertEquals(2, cached.getRPG1().getData());
+		assertEquals(9, cached.getPC().getData());
+		breakpoints.clear();
+
+		//the stack positions are watched too
+		int subroutine[] = {20, 4,    //call sub
+							-1, 0,
+							21};      //sub: ret
+		Architecture stack = new Architecture();
+		loadProgram(stack, subroutine, 100);
+		breakpoints.setWriteWatchpoint(100, true);
+		breakpoints.setReadWatchpoint(100, true);
+		assertTrue(stack.runUntilBreak(breakpoints));
+		assertEquals(Breakpoints.Hit.WRITE_WATCHPOINT, breakpoints.getHit());
+		assertEquals(100, breakpoints.getHitPosition());
+		assertEquals(2, stack.getMemory().getData(100));
+		assertTrue(stack.runUntilBreak(breakpoints));
+		assertEquals(Breakpoints.Hit.READ_WATCHPOINT, breakpoints.getHit());
+		assertEquals(2, stack.getPC().getData());
+		assertFalse(stack.runUntilBreak(breakpoints));
+
+		//the memory keeps its own storage out of the run
+		assertTrue(stack.getMemory().getStorage() instanceof DenseStorage);
+
+		try {
+			new Architecture(false, ExecutionMode.FUNCTIONAL).runUntilBreak(breakpoints);
+			fail("the FUNCTIONAL mode has no commands steps");
+		} catch (IllegalStateException e) {
+		}
+	}
+
+	@Test
+	public void testRecordReplay() {
+		int program[] = {11, 5, 0,      //move 5 %RPG0
+						 11, 0, 1,      //move 0 %RPG1
+						 3, 1, 1,       //laco: add 1 %RPG1
+						 9, 1, 110,     //move %RPG1 110
+						 20, 26,        //call sub
+						 18, 0, 1, 6,   //jgt %RPG0 %RPG1 laco
+						 -1, 0, 0, 0, 0, 0, 0, 0,
+						 8, 110, 2,     //sub: move 110 %RPG2
+						 21};           //ret
+		Architecture reference = new Architecture();
+		Architecture arch = new Architecture();
+		loadProgram(reference, program, 100);
+		loadProgram(arch, program, 100);
+		Recorder referenceRecorder = reference.startRecording(1000, 1 << 20);
+
+		//the states after each command, executing one at a time
+		ArrayList<MachineState> states = new ArrayList<MachineState>();
+		states.add(reference.snapshot());
+		while (true) {
+			reference.replayTo(referenceRecorder.getCount()+1);
+			if (referenceRecorder.getCount() < states.size())
+				break; //the program ended
+			states.add(reference.snapshot());
+		}
+		assertTrue(states.get(states.size()-1).isHalted());
+
+		Recorder recorder = arch.startRecording(4, 1 << 20);
+		arch.controlUnitEexec();
+		assertEquals(5, arch.getRPG2().getData());
+		assertEquals(states.size()-1, recorder.getCount());
+		assertTrue(recorder.getCheckpoints() > 1);
+
+		//going back to every command, from the nearest checkpoint
+		for (int count=states.size()-1;count>=0;count--) {
+			arch.replayTo(count);
+			assertEquals(count, recorder.getCount());
+			assertSameState(states.get(count), arch.snapshot());
+			arch.replayTo(states.size()-1); //and executing again to the end
+			assertSameState(states.get(states.size()-1), arch.snapshot());
+		}
+		assertTrue(arch.stepBack());
+		assertTrue(arch.stepBack());
+		assertSameState(states.get(states.size()-3), arch.snapshot());
+		arch.replayTo(0);
+		assertFalse(arch.stepBack());
+
+		//a small budget keeps only the last commands
+		arch.stopRecording();
+		assertNotNull(arch.getMemory().getDataList());
+		arch.restore(states.get(0));
+		recorder = arch.startRecording(4, 3*(arch.getMemorySize()+20));
+		arch.controlUnitEexec();
+		assertTrue(recorder.getFirstCount() > 0);
+		arch.replayTo(recorder.getFirstCount());
+		assertSameState(states.get((int) recorder.getFirstCount()), arch.snapshot());
+		try {
+			arch.replayTo(recorder.getFirstCount()-1);
+			fail("a command dropped from the recording was reached");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	/**
+	 * This method compares everything a MachineState keeps
+	 */
+	private void assertSameState(MachineState expected, MachineState state) {
+		assertEquals(expected.getRegisters().length, state.getRegisters().length);
+		for (int i=0;i<expected.getRegisters().length;i++)
+			assertEquals(expected.getRegister(i), state.getRegister(i));
+		assertEquals(expected.getFlagBit(0), state.getFlagBit(0));
+		assertEquals(expected.getFlagBit(1), state.getFlagBit(1));
+		assertEquals(expected.getMemorySize(), state.getMemorySize());
+		for (int i=0;i<expected.getMemorySize();i++)
+			assertEquals(expected.getMemoryData(i), state.getMemoryData(i));
+		assertEquals(expected.getStatusMemory().length, state.getStatusMemory().length);
+		for (int i=0;i<expected.getStatusMemory().length;i++)
+			assertEquals(expected.getStatusMemory()[i], state.getStatusMemory()[i]);
+		for (int i=0;i<expected.getBuses().length;i++)
+			assertEquals(expected.getBuses()[i], state.getBuses()[i]);
+		assertEquals(expected.getDemux(), state.getDemux());
+		assertEquals(expected.isHalted(), state.isHalted());
+	}
+
+	@Test
+	public void testProfiler() {
+		int program[] = {11, 5, 0,      //move 5 %RPG0
+						 11, 0, 1,      //move 0 %RPG1
+						 3, 1, 1,       //laco: add 1 %RPG1
+						 9, 1, 110,     //move %RPG1 110
+						 20, 26,        //call sub
+						 18, 0, 1, 6,   //jgt %RPG0 %RPG1 laco
+						 -1, 0, 0, 0, 0, 0, 0, 0,
+						 8, 110, 2,     //sub: move 110 %RPG2
+						 21};           //ret
+		Architecture arch = new Architecture();
+		loadProgram(arch, program, 100);
+		assertNull(arch.getProfiler());
+		arch.setProfiling(true);
+		Profiler profiler = arch.getProfiler();
+		ArrayList<String> labels = new ArrayList<String>();
+		ArrayList<Integer> addresses = new ArrayList<Integer>();
+		labels.add("laco");
+		addresses.add(6);
+		labels.add("sub");
+		addresses.add(26);
+		profiler.setLabels(labels, addresses);
+		Counter counter = new Counter();
+		arch.addListener(counter);
+
+		arch.controlUnitEexec();
+
+		assertEquals(1, profiler.getExecutions(0));
+		assertEquals(5, profiler.getExecutions(6));
+		assertEquals(5, profiler.getExecutions(26));
+		assertEquals(5, profiler.getExecutions(29));
+		assertEquals(1, profiler.getExecutions(18)); //the end of the program
+		assertEquals(0, profiler.getExecutions(7));
+		long microsteps = 0;
+		for (int i=0;i<arch.getMemorySize();i++)
+			microsteps += profiler.getMicrosteps(i);
+		assertEquals(counter.puts, microsteps);
+
+		//the loop takes more microsteps than the subroutine and the start
+		String report[] = profiler.report().split("\n");
+		assertTrue(report[0].startsWith("Profile: 33 commands"));
+		assertTrue(report[2].startsWith("laco"));
+		assertTrue(report[3].startsWith("sub"));
+		assertTrue(report[4].startsWith("(start)"));
+
+		//the labels can be given in any order
+		labels.add(0, labels.remove(1));
+		addresses.add(0, addresses.remove(1));
+		profiler.setLabels(labels, addresses);
+		assertEquals(Arrays.asList(report), Arrays.asList(profiler.report().split("\n")));
+
+		//the commands executed by the decode cache have no microsteps to count
+		try {
+			arch.setDecodeCache(true);
+			fail("the decode cache was turned on while profiling");
+		} catch (IllegalStateException e) {
+		}
+		arch.setProfiling(false);
+		assertNull(arch.getProfiler());
+		arch.setDecodeCache(true);
+		try {
+			arch.setProfiling(true);
+			fail("the commands were profiled with the decode cache on");
+		} catch (IllegalStateException e) {
+		}
+		assertNull(arch.getProfiler());
+	}
+
+	/**
+	 * This listener counts the data put in the buses and the memory accesses, with the stack ones:
+	 * the stack positions are accessed without the bus, but each push or pop stores the StackTop
+	 */
+	private static class Counter implements ComponentListener {
+
+		long puts, reads, stores, stackAccesses;
+
+		public void busPut(Bus bus, int data) {
+			puts++;
+		}
+		public void memoryRead(Memory memory, int position, int data) {
+			reads++;
+		}
+		public void memoryStored(Memory memory, int position, int data) {
+			stores++;
+		}
+		public void registerStored(Register register, int data) {
+			if (register.getRegisterName().equals("StackTop"))
+				stackAccesses++;
+		}
+
+		long accesses() {
+			return reads + stores + stackAccesses;
+		}
+	}
 }
@@ -0,0 +1,113 @@
+package architecture;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Test;
+
+public class TestExecutableFile {
+
+	/**
+	 * This method makes the contents of an executable file with the header and the section table
+	 * @param magic
+	 * @param version
+	 * @param sections {type, address, length, offset} for each section
+	 * @param payloadWords
+	 * @return
+	 */
+	private ByteBuffer contents(int magic, int version, int sections[][], int payloadWords[]) {
+		int size = ExecutableFile.HEADER_SIZE + ExecutableFile.SECTION_ENTRY_SIZE*sections.length + 4*payloadWords.length;
+		ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(magic).putInt(version).putInt(0).putInt(100).putInt(128).putInt(sections.length);
+		for (int section[] : sections)
+			buffer.putInt(section[0]).putInt(section[1]).putInt(section[2]).putInt(section[3]);
+		for (int word : payloadWords)
+			buffer.putInt(word);
+		buffer.flip();
+		return buffer;
+	}
+
+	@Test
+	public void testParse() throws IOException {
+		int offset = ExecutableFile.HEADER_SIZE + ExecutableFile.SECTION_ENTRY_SIZE;
+		ByteBuffer buffer = contents(ExecutableFile.MAGIC, ExecutableFile.VERSION,
+									 new int[][] {{ExecutableFile.SECTION_CODE, 10, 3, offset}}, new int[] {11, -1, 300});
+
+		//the payload is little-endian
+		assertEquals(11, buffer.get(offset));
+		assertEquals(0, buffer.get(offset+3));
+
+		ExecutableFile exec = ExecutableFile.parse(buffer);
+		assertEquals(0, exec.getEntryPoint());
+		assertEquals(100, exec.getStackBase());
+		assertEquals(128, exec.getMemorySize());
+		assertEquals(1, exec.getSections().size());
+		assertEquals(10, exec.getSections().get(0).getAddress());
+		assertEquals(3, exec.getSections().get(0).getLength());
+
+		int memory[] = new int[128];
+		exec.load(memory);
+		assertEquals(0, memory[9]);
+		assertEquals(11, memory[10]);
+		assertEquals(-1, memory[11]);
+		assertEquals(300, memory[12]);
+		assertEquals(0, memory[13]);
+	}
+
+	@Test
+	public void testInvalidFiles() {
+		int offset = ExecutableFile.HEADER_SIZE + ExecutableFile.SECTION_ENTRY_SIZE;
+		int valid[][] = {{ExecutableFile.SECTION_CODE, 0, 2, offset}};
+		ByteBuffer invalid[] = {contents(0x12345678, ExecutableFile.VERSION, valid, new int[] {1, 2}),  //magic
+								contents(ExecutableFile.MAGIC, 2, valid, new int[] {1, 2}),             //version
+								contents(ExecutableFile.MAGIC, ExecutableFile.VERSION, valid, new int[] {1}), //truncated
+								contents(ExecutableFile.MAGIC, ExecutableFile.VERSION,
+										 new int[][] {{ExecutableFile.SECTION_CODE, 0, -2, offset}}, new int[] {})};
+		for (ByteBuffer buffer : invalid) {
+			try {
+				ExecutableFile.parse(buffer);
+				fail("an invalid file was parsed");
+			} catch (IOException e) {
+			}
+		}
+
+		//a section that does not fit in the memory
+		try {
+			ExecutableFile exec = ExecutableFile.parse(contents(ExecutableFile.MAGIC, ExecutableFile.VERSION,
+										new int[][] {{ExecutableFile.SECTION_DATA, 127, 2, offset}}, new int[] {1, 2}));
+			exec.load(new int[128]);
+			fail("a section out of the memory was loaded");
+		} catch (IOException e) {
+		}
+	}
+
+	@Test
+	public void testMapAndRead() throws IOException {
+		File file = File.createTempFile("testMap", ExecutableFile.EXTENSION);
+		String filename = file.getPath().substring(0, file.getPath().length()-ExecutableFile.EXTENSION.length());
+		int code[] = new int[100];
+		for (int i=0;i<code.length;i++)
+			code[i] = i*1000 - 50000;
+		ExecutableFile exec = new ExecutableFile(0, 127, 128);
+		exec.addSection(ExecutableFile.SECTION_CODE, 0, code);
+		exec.addSection(ExecutableFile.SECTION_DATA, 120, new int[] {-1, Integer.MAX_VALUE, Integer.MIN_VALUE});
+		exec.write(filename);
+
+		int mapped[] = new int[128];
+		int read[] = new int[128];
+		ExecutableFile.map(filename).load(mapped);
+		ExecutableFile.read(filename).load(read);
+		file.delete();
+
+		assertArrayEquals(read, mapped);
+		assertEquals(-50000, mapped[0]);
+		assertEquals(49000, mapped[99]);
+		assertEquals(0, mapped[100]);
+		assertEquals(Integer.MAX_VALUE, mapped[121]);
+		assertEquals(Integer.MIN_VALUE, mapped[122]);
+	}
+}
@@ -0,0 +1,84 @@
+package architecture;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TestFunctionalEngine {
+
+	/**
+	 * This method creates a 128 positions memory with the program from the address 0
+	 * @param program
+	 * @return
+	 */
+	private int[] memory(int program[]) {
+		int memory[] = new int[128];
+		for (int i=0;i<program.length;i++)
+			memory[i] = program[i];
+		return memory;
+	}
+
+	/**
+	 * This method runs the program with and without superinstructions
+	 * and checks that the final states are the same
+	 * @param program
+	 * @return the engine that used the superinstructions
+	 */
+	private FunctionalEngine runBoth(int program[]) {
+		FunctionalEngine plain = new FunctionalEngine(memory(program));
+		FunctionalEngine fused = new FunctionalEngine(memory(program));
+		plain.setFusion(false);
+
+		plain.run();
+		fused.run();
+
+		assertEquals(0, plain.getFusedPairs());
+		assertArrayEquals(plain.getRegisters(), fused.getRegisters());
+		assertArrayEquals(plain.getMemory(), fused.getMemory());
+		return fused;
+	}
+
+	@Test
+	public void testSuperinstructions() {
+		int program[] = {11, 0, 1,     //move 0 %RPG1
+						 11, 50, 0,    //move 50 %RPG0
+						 3, 1, 1,      //laco: add 1 %RPG1      (fused with jgt)
+						 18, 0, 1, 23, //jgt %RPG0 %RPG1 soma
+						 11, 7, 3,     //move 7 %RPG3
+						 3, -3, 3,     //desce: add -3 %RPG3    (fused with jn)
+						 15, 31,       //jn fim
+						 13, 16,       //jmp desce
+						 3, 1, 2,      //soma: add 1 %RPG2      (fused with add)
+						 0, 1, 2,      //add %RPG1 %RPG2
+						 13, 6,        //jmp laco
+						 -1};
+		FunctionalEngine fused = runBoth(program);
+
+		assertTrue(fused.isFused(6));
+		assertTrue(fused.isFused(16));
+		assertTrue(fused.isFused(23));
+		assertEquals(49 + 49*50/2, fused.getRegisters()[2]);
+		assertEquals(-2, fused.getRegisters()[3]); //7-3-3-3
+		assertEquals(0, fused.getBit(0));
+		assertEquals(1, fused.getBit(1));
+	}
+
+	@Test
+	public void testStoreInFusedPair() {
+		int program[] = {11, 0, 1,     //move 0 %RPG1
+						 11, 100, 0,   //move 100 %RPG0
+						 3, 5, 2,      //laco: add 5 %RPG2
+						 3, 1, 1,      //add 1 %RPG1            (fused with the one above)
+						 18, 0, 1, 6,  //jgt %RPG0 %RPG1 laco
+						 11, 7, 3,     //move 7 %RPG3
+						 9, 3, 7,      //move %RPG3 7 (the immediate of "add 5 %RPG2" becomes 7)
+						 11, 200, 0,   //move 200 %RPG0
+						 18, 0, 1, 6,  //jgt %RPG0 %RPG1 laco
+						 -1};
+		FunctionalEngine fused = runBoth(program);
+
+		//the pair was dropped when its immediate was written
+		assertEquals(100*5 + 100*7, fused.getRegisters()[2]);
+		assertFalse(fused.isFused(6));
+	}
+}
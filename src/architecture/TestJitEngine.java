@@ -0,0 +1,96 @@
+package architecture;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TestJitEngine {
+
+	/**
+	 * This method creates a 128 positions memory with the program from the address 0
+	 * @param program
+	 * @return
+	 */
+	private int[] memory(int program[]) {
+		int memory[] = new int[128];
+		for (int i=0;i<program.length;i++)
+			memory[i] = program[i];
+		return memory;
+	}
+
+	@Test
+	public void testHotLoop() {
+		int program[] = {11, 0, 1,     //move 0 %RPG1
+						 11, 200, 0,   //move 200 %RPG0
+						 3, 1, 1,      //laco: add 1 %RPG1
+						 0, 1, 2,      //add %RPG1 %RPG2
+						 18, 0, 1, 6,  //jgt %RPG0 %RPG1 laco
+						 9, 2, 100,    //move %RPG2 100
+						 -1};
+		FunctionalEngine functional = new FunctionalEngine(memory(program));
+		JitEngine jit = new JitEngine(memory(program));
+
+		functional.run();
+		jit.run();
+
+		//the loop was compiled and the results are the same
+		assertTrue(jit.getCompiledBlocks() > 0);
+		assertTrue(jit.isCompiled(6));
+		assertArrayEquals(functional.getRegisters(), jit.getRegisters());
+		assertArrayEquals(functional.getMemory(), jit.getMemory());
+		assertEquals(20100, jit.getMemory()[100]); //1+2+...+200
+		assertEquals(19, jit.getRegisters()[FunctionalEngine.PC]);
+	}
+
+	@Test
+	public void testSelfModifyingStore() {
+		int program[] = {11, 0, 1,     //move 0 %RPG1
+						 11, 100, 0,   //move 100 %RPG0
+						 3, 1, 1,      //laco: add 1 %RPG1
+						 3, 5, 2,      //add 5 %RPG2
+						 18, 0, 1, 6,  //jgt %RPG0 %RPG1 laco
+						 11, 7, 3,     //move 7 %RPG3
+						 9, 3, 10,     //move %RPG3 10 (the immediate of "add 5 %RPG2" becomes 7)
+						 11, 200, 0,   //move 200 %RPG0
+						 18, 0, 1, 6,  //jgt %RPG0 %RPG1 laco
+						 -1};
+		FunctionalEngine functional = new FunctionalEngine(memory(program));
+		JitEngine jit = new JitEngine(memory(program));
+
+		functional.run();
+		jit.run();
+
+		//the compiled loop was dropped and compiled again with the new immediate
+		assertEquals(100*5 + 100*7, jit.getRegisters()[2]);
+		assertArrayEquals(functional.getRegisters(), jit.getRegisters());
+		assertArrayEquals(functional.getMemory(), jit.getMemory());
+	}
+
+	@Test
+	public void testCallRet() {
+		int program[] = {11, 0, 1,     //move 0 %RPG1
+						 11, 100, 0,   //move 100 %RPG0
+						 20, 14,       //laco: call sub
+						 18, 0, 1, 6,  //jgt %RPG0 %RPG1 laco
+						 -1, -1,
+						 3, 1, 1,      //sub: add 1 %RPG1
+						 1, 101, 2,    //add 101 %RPG2
+						 21};          //ret
+		int functionalMemory[] = memory(program);
+		int jitMemory[] = memory(program);
+		functionalMemory[101] = jitMemory[101] = 3;
+		FunctionalEngine functional = new FunctionalEngine(functionalMemory);
+		JitEngine jit = new JitEngine(jitMemory);
+		functional.getRegisters()[FunctionalEngine.STACK_TOP] = jit.getRegisters()[FunctionalEngine.STACK_TOP] = 120;
+		functional.getRegisters()[FunctionalEngine.STACK_BOTTON] = jit.getRegisters()[FunctionalEngine.STACK_BOTTON] = 120;
+
+		functional.run();
+		jit.run();
+
+		assertTrue(jit.isCompiled(14));
+		assertEquals(300, jit.getRegisters()[2]);
+		assertEquals(120, jit.getRegisters()[FunctionalEngine.STACK_TOP]);
+		assertArrayEquals(functional.getRegisters(), jit.getRegisters());
+		assertArrayEquals(functional.getMemory(), jit.getMemory());
+	}
+}
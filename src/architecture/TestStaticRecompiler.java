@@ -0,0 +1,180 @@
+package architecture;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.jar.JarFile;
+
+import org.junit.Test;
+
+public class TestStaticRecompiler {
+
+	/**
+	 * This class loader defines the generated program class
+	 */
+	private static class ProgramLoader extends ClassLoader {
+		public ProgramLoader() {
+			super(TestStaticRecompiler.class.getClassLoader());
+		}
+
+		public Class<?> define(byte classFile[]) {
+			return defineClass(StaticRecompiler.CLASS_NAME, classFile, 0, classFile.length);
+		}
+	}
+
+	/**
+	 * This method creates the recompiled program with the memory read back from its image
+	 * @param recompiler
+	 * @return
+	 */
+	private AotEngine instantiate(StaticRecompiler recompiler) throws Exception {
+		Class<?> programClass = new ProgramLoader().define(recompiler.compileClass());
+		ByteArrayOutputStream image = new ByteArrayOutputStream();
+		recompiler.writeImage(image);
+		int memory[] = AotEngine.readImage(new ByteArrayInputStream(image.toByteArray()));
+		return (AotEngine) programClass.getDeclaredConstructor(int[].class).newInstance((Object) memory);
+	}
+
+	private int[] memory(int program[]) {
+		int memory[] = new int[128];
+		for (int i=0;i<program.length;i++)
+			memory[i] = program[i];
+		return memory;
+	}
+
+	/**
+	 * This method recompiles the program, runs it and compares the results
+	 * with the FunctionalEngine ones
+	 * @param program
+	 * @param stackPosition
+	 * @return the recompiled program, after running
+	 */
+	private AotEngine runBoth(int program[], int stackPosition) throws Exception {
+		StaticRecompiler recompiler = new StaticRecompiler(memory(program), stackPosition);
+		AotEngine compiled = instantiate(recompiler);
+		FunctionalEngine functional = new FunctionalEngine(memory(program));
+		for (FunctionalEngine engine : new FunctionalEngine[] {compiled, functional}) {
+			engine.getRegisters()[FunctionalEngine.STACK_BOTTON] = stackPosition;
+			engine.getRegisters()[FunctionalEngine.STACK_TOP] = stackPosition;
+		}
+
+		compiled.run();
+		functional.run();
+
+		assertArrayEquals(functional.getRegisters(), compiled.getRegisters());
+		assertArrayEquals(functional.getMemory(), compiled.getMemory());
+		return compiled;
+	}
+
+	@Test
+	public void testLoopAndCall() throws Exception {
+		int program[] = {11, 0, 1,     //move 0 %RPG1
+						 11, 100, 0,   //move 100 %RPG0
+						 20, 16,       //laco: call sub
+						 9, 2, 100,    //move %RPG2 100
+						 18, 0, 1, 6,  //jgt %RPG0 %RPG1 laco
+						 -1,
+						 3, 1, 1,      //sub: add 1 %RPG1
+						 0, 1, 2,      //add %RPG1 %RPG2
+						 21};          //ret
+		AotEngine compiled = runBoth(program, 120);
+
+		assertTrue(compiled.isCompiled());
+		assertEquals(5050, compiled.getMemory()[100]);
+		assertEquals(120, compiled.getRegisters()[FunctionalEngine.STACK_TOP]);
+	}
+
+	@Test
+	public void testSelfModifyingStore() throws Exception {
+		int program[] = {11, 0, 1,     //move 0 %RPG1
+						 11, 100, 0,   //move 100 %RPG0
+						 3, 1, 1,      //laco: add 1 %RPG1
+						 3, 5, 2,      //add 5 %RPG2
+						 18, 0, 1, 6,  //jgt %RPG0 %RPG1 laco
+						 11, 7, 3,     //move 7 %RPG3
+						 9, 3, 10,     //move %RPG3 10 (the immediate of "add 5 %RPG2" becomes 7)
+						 11, 200, 0,   //move 200 %RPG0
+						 18, 0, 1, 6,  //jgt %RPG0 %RPG1 laco
+						 -1};
+		AotEngine compiled = runBoth(program, 120);
+
+		//the blocks were left after the store into the code
+		assertFalse(compiled.isCompiled());
+		assertEquals(100*5 + 100*7, compiled.getRegisters()[2]);
+	}
+
+	@Test
+	public void testFromExecutable() throws Exception {
+		int program[] = {11, 0, 1,     //move 0 %RPG1
+						 11, 100, 0,   //move 100 %RPG0
+						 3, 1, 1,      //laco: add 1 %RPG1
+						 18, 0, 1, 6,  //jgt %RPG0 %RPG1 laco
+						 9, 1, 300,    //move %RPG1 300
+						 -1};
+		ExecutableFile exec = new ExecutableFile(0, 290, 512);
+		exec.addSection(ExecutableFile.SECTION_CODE, 0, program);
+
+		//the memory has the size in the header, not the default one
+		StaticRecompiler recompiler = StaticRecompiler.fromExecutable(exec);
+		AotEngine compiled = instantiate(recompiler);
+		assertEquals(512, compiled.getMemory().length);
+		compiled.getRegisters()[FunctionalEngine.STACK_BOTTON] = 290;
+		compiled.getRegisters()[FunctionalEngine.STACK_TOP] = 290;
+		compiled.run();
+		assertEquals(100, compiled.getMemory()[300]);
+
+		try {
+			StaticRecompiler.fromExecutable(new ExecutableFile(3, 290, 512));
+			fail("the recompiled programs start in the address 0");
+		} catch (IOException e) {
+		}
+	}
+
+	@Test
+	public void testLargeProgram() throws Exception {
+		int commands = 8000;
+		int memory[] = new int[1 << 15];
+		for (int i=0;i<commands;i++) { //add 1 %RPG1, many times
+			memory[3*i] = 3;
+			memory[3*i+1] = 1;
+			memory[3*i+2] = 1;
+		}
+		memory[3*commands] = -1;
+		StaticRecompiler recompiler = new StaticRecompiler(memory, memory.length-1, 3*commands+1);
+
+		//the memory is not in the class, and the blocks are called by many dispatch methods
+		AotEngine compiled = instantiate(recompiler);
+		compiled.getRegisters()[FunctionalEngine.STACK_BOTTON] = memory.length-1;
+		compiled.getRegisters()[FunctionalEngine.STACK_TOP] = memory.length-1;
+		compiled.run();
+		assertTrue(compiled.isCompiled());
+		assertEquals(commands, compiled.getRegisters()[1]);
+		assertArrayEquals(memory, compiled.getMemory());
+
+		//the jar has the image
+		File file = File.createTempFile("testLargeProgram", ".jar");
+		file.deleteOnExit();
+		recompiler.writeJar(file.getPath());
+		JarFile jar = new JarFile(file);
+		try {
+			assertArrayEquals(memory, AotEngine.readImage(jar.getInputStream(jar.getEntry(AotEngine.IMAGE))));
+			assertNotNull(jar.getEntry(StaticRecompiler.CLASS_NAME+".class"));
+		} finally {
+			jar.close();
+		}
+
+		//a method longer than the JVM allows is not written
+		ClassFileWriter writer = new ClassFileWriter("Long", "java/lang/Object");
+		ClassFileWriter.Code code = writer.new Code();
+		for (int i=0;i<=ClassFileWriter.MAX_CODE_LENGTH;i++)
+			code.op(ClassFileWriter.RETURN);
+		try {
+			writer.addMethod(ClassFileWriter.ACC_PUBLIC, "run", "()V", code, 1);
+			fail("the method has more than 64 KB of bytecodes");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+}
@@ -7,38 +7,92 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.lang.reflect.Array;
 import java.util.ArrayList;
 import org.hamcrest.core.IsNull;
 import components.Register;
 import architecture.Architecture;
+import architecture.ExecutableFile;
+import architecture.ExecutionMode;
+import architecture.Profiler;
 
 public class Assembler {
 
 	private ArrayList<String> lines;
-	private ArrayList<String> objProgram;
-	private ArrayList<String> execProgram;
+	private ObjectProgram objProgram;
+	private ObjectProgram execProgram;
 	private Architecture arch;
 	private ArrayList<String> commands;	
 	private ArrayList<String> labels;
 	private ArrayList<Integer> labelsAdresses;
 	private ArrayList<String> variables;
+
+	private static final String MULTIPLE_FORMATS[] = {"add", "sub", "move"}; //commands with one id for each format
+	private static final String FORMATS[] = {"RegReg", "MemReg", "RegMem", "ImmReg"};
+	private static final int REG_REG = 0, MEM_REG = 1, REG_MEM = 2, IMM_REG = 3;
+
+	//for each command id: how many operands it has and which one is a memory address
+	//written with no & in the source (it gets the & in the object program), or -1
+	private static final int OPERANDS[]        = { 2, 2, 2, 2,  2, 2, 2, 2,  2, 2, 2, 2,  1, 1, 1, 1,  3, 3, 3, 3,  1,  0};
+	private static final int ADDRESS_OPERAND[] = {-1,-1, 1,-1, -1,-1, 1,-1, -1, 1,-1,-1, -1, 0, 0, 0,  2, 2, 2, 2,  0, -1};
+	private static final int MAX_TOKENS = 4; //the command and 3 operands
+
+	private PerfectHash mnemonics; //the commands list, then the MULTIPLE_FORMATS
+	private PerfectHash registerIds;
+	private int formats[][];       //the ids of the FORMATS of each one of the MULTIPLE_FORMATS
+	private Lexer lexer;
+	private int tokenKinds[];      //the tokens of the line being parsed
+	private int tokenStarts[];
+	private int tokenEnds[];
+	private int tokenValues[];
 	
 	
 	public Assembler() {
+		this(new Architecture());
+	}
+
+	/**
+	 * This constructor assembles the programs for the architecture given,
+	 * so the variables are placed from the end of its memory
+	 * @param arch
+	 */
+	public Assembler(Architecture arch) {
 		lines = new ArrayList<>();
 		labels = new ArrayList<>();
 		labelsAdresses = new ArrayList<>();
 		variables = new ArrayList<>();
-		objProgram = new ArrayList<>();
-		execProgram = new ArrayList<>();
-		arch = new Architecture();
+		objProgram = new ObjectProgram();
+		execProgram = new ObjectProgram();
+		this.arch = arch;
 		commands = arch.getCommandsList();	
+
+		ArrayList<String> names = new ArrayList<>(commands);
+		for (String command : MULTIPLE_FORMATS)
+			names.add(command);
+		mnemonics = new PerfectHash(names);
+		formats = new int[MULTIPLE_FORMATS.length][FORMATS.length];
+		for (int i=0;i<MULTIPLE_FORMATS.length;i++) {
+			for (int j=0;j<FORMATS.length;j++)
+				formats[i][j] = commands.indexOf(MULTIPLE_FORMATS[i]+FORMATS[j]);
+		}
+
+		names = new ArrayList<>();
+		for (Register r : arch.getRegistersList())
+			names.add(r.getRegisterName());
+		registerIds = new PerfectHash(names);
+
+		lexer = new Lexer();
+		tokenKinds = new int[MAX_TOKENS];
+		tokenStarts = new int[MAX_TOKENS];
+		tokenEnds = new int[MAX_TOKENS];
+		tokenValues = new int[MAX_TOKENS];
 	}
 	
 	//getters
 	
-	public ArrayList<String> getObjProgram() {
+	public ObjectProgram getObjProgram() {
 		return objProgram;
 	}
 	
@@ -59,7 +113,7 @@ public class Assembler {
 		return variables;
 	}
 	
-	protected ArrayList<String> getExecProgram() {
+	protected ObjectProgram getExecProgram() {
 		return execProgram;
 	}
 	
@@ -68,7 +122,9 @@ public class Assembler {
 	}	
 
 	protected void setExecProgram(ArrayList<String> lines) {
-		this.execProgram = lines;
+		execProgram = new ObjectProgram();
+		for (String l : lines)
+			execProgram.add(l);
 	}	
 	
 	
@@ -109,27 +165,90 @@ public class Assembler {
 
 	/**
 	 * This method scans the strings in lines
-	 * generating, for each one, the corresponding machine code
+	 * generating, for each one, the corresponding machine code.
+	 * The lines are read by the lexer and the words are kept as ints (see ObjectProgram),
+	 * so only the labels, the variables and the names not seen before are new strings
 	 * @param lines
 	 */
 	public void parse() {
-		for (String s:lines) {
-			String tokens[] = s.split(" ");
+		for (String s:lines)
+			parseLine(s);
+	}
 
-			if (findCommandNumber(tokens)>=0) { //the line is a command
-				proccessCommand(tokens);
+	private void parseLine(String line) {
+		int n = tokenize(line);
+		if (n == 0) { //an empty line is kept as before: an empty variable
+			variables.add(line.trim());
+			return;
+		}
+
+		int commandNumber = commandOf(line, n);
+		if (commandNumber>=0) { //the line is a command
+			objProgram.add(ObjectProgram.NUMBER, commandNumber);
+			for (int i=0;i<operandsOf(commandNumber);i++) {
+				int start = tokenStarts[i+1];
+				int end = tokenEnds[i+1];
+				if (ADDRESS_OPERAND[commandNumber] == i) //this is a flag to indicate that is a position in memory
+					objProgram.add(ObjectProgram.SYMBOL, objProgram.nameId(line, start, end));
+				else if (tokenKinds[i+1] == Lexer.IMMEDIATE)
+					objProgram.add(ObjectProgram.NUMBER, tokenValues[i+1]);
+				else if (tokenKinds[i+1] == Lexer.REGISTER)
+					objProgram.add(ObjectProgram.REGISTER, objProgram.nameId(line, start+1, end));
+				else if (tokenKinds[i+1] == Lexer.SYMBOL)
+					objProgram.add(ObjectProgram.SYMBOL, objProgram.nameId(line, start+1, end));
+				else
+					objProgram.add(ObjectProgram.TEXT, objProgram.nameId(line, start, end));
 			}
-			else { //the line is not a command: so, it can be a variable or a label
-				if (tokens[0].endsWith(":")){ //if it ends with : it is a label
-					String label = tokens[0].substring(0, tokens[0].length()-1); //removing the last character
-					labels.add(label);
-					labelsAdresses.add(objProgram.size());
-				}
-				else //otherwise, it must be a variable
-					variables.add(tokens[0]);
+		}
+		else { //the line is not a command: so, it can be a variable or a label
+			if (isLabel(line)) { //if it ends with : it is a label
+				labels.add(line.substring(tokenStarts[0], tokenEnds[0]-1)); //removing the last character
+				labelsAdresses.add(objProgram.size());
 			}
+			else //otherwise, it must be a variable
+				variables.add(line.substring(tokenStarts[0], tokenEnds[0]));
+		}
+	}
+
+	/**
+	 * This method reads the tokens of the line into tokenKinds, tokenStarts, tokenEnds and tokenValues
+	 * @param line
+	 * @return how many tokens were read
+	 */
+	private int tokenize(String line) {
+		int n = 0;
+		lexer.reset(line);
+		while (n < MAX_TOKENS && lexer.next() != Lexer.END) {
+			tokenKinds[n] = lexer.getKind();
+			tokenStarts[n] = lexer.getStart();
+			tokenEnds[n] = lexer.getEnd();
+			if (tokenKinds[n] == Lexer.IMMEDIATE)
+				tokenValues[n] = lexer.getValue();
+			n++;
 		}
-		
+		for (int i=n;i<MAX_TOKENS;i++)
+			tokenKinds[i] = Lexer.END;
+		return n;
+	}
+
+	/**
+	 * This method returns the command id of a tokenized line
+	 * @param line
+	 * @param n how many tokens the line has
+	 * @return -1 if the line is not a command
+	 * @throws IllegalArgumentException if the command has not all its operands
+	 */
+	private int commandOf(String line, int n) {
+		int commandNumber = mnemonics.get(line, tokenStarts[0], tokenEnds[0]);
+		if (commandNumber >= commands.size())
+			commandNumber = formatOf(commandNumber-commands.size(), tokenKinds[1], tokenKinds[2]);
+		if (commandNumber >= 0 && n-1 < operandsOf(commandNumber))
+			throw new IllegalArgumentException("the command in \""+line+"\" needs "+operandsOf(commandNumber)+" operands");
+		return commandNumber;
+	}
+
+	private boolean isLabel(String line) {
+		return line.charAt(tokenEnds[0]-1) == ':';
 	}
 
 	/**
@@ -138,133 +257,22 @@ public class Assembler {
 	 * @param tokens
 	 */
 	protected void proccessCommand(String[] tokens) {  
-		String command = tokens[0];
-		String parameter = "";
-		String parameter2 = "";
-        String parameter3 = "";
 		int commandNumber = findCommandNumber(tokens);
 
-		if (commandNumber == 0) { //must to proccess an addRegReg command
-			parameter = tokens[1];
-			parameter2 = tokens[2];
-		}
-
-		if (commandNumber == 1) { //must to proccess an addMemReg command
-			parameter = tokens[1];	
-            parameter2 = tokens[2];	
-		}
-
-        if (commandNumber == 2) { //must to proccess an addRegMem command
-            parameter = tokens[1];
-			parameter2 = "&" + tokens[2];		
-		}
-
-        if (commandNumber == 3) { //must to proccess an addImmReg command
-			parameter = tokens[1];		
-            parameter2 = tokens[2];
-		}
-
-        if (commandNumber == 4) { //must to proccess an subRegReg command
-			parameter = tokens[1];
-			parameter2 = tokens[2];
-		}
-
-        if (commandNumber == 5) { //must to proccess an subMemReg command
-			parameter = tokens[1];	
-            parameter2 = tokens[2];	
-		}
-
-        if (commandNumber == 6) { //must to proccess an subRegMem command
-            parameter = tokens[1];
-			parameter2 = "&" + tokens[2];		
-		}
-
-        if (commandNumber == 7) { //must to proccess an subImmReg command
-			parameter = tokens[1];		
-            parameter2 = tokens[2];
-		}
-
-        if (commandNumber == 8) { //must to proccess an moveMemReg command
-			parameter = tokens[1];
-			parameter2 = tokens[2];
-		}
-
-        if (commandNumber == 9) { //must to proccess an moveRegMem command
-			parameter = tokens[1];
-			parameter2 = "&" + tokens[2];
-		}
-
-        if (commandNumber == 10) { //must to proccess an moveRegReg command
-			parameter = tokens[1];
-			parameter2 = tokens[2];
-		}
-
-        if (commandNumber == 11) { //must to proccess an moveImmReg command
-			parameter = tokens[1];
-			parameter2 = tokens[2];
-		}
-
-        if (commandNumber == 12) { //must to proccess an inc command
-			parameter = tokens[1];
-		}
-
-		if (commandNumber == 13) { //must to proccess an jmp command
-			parameter = tokens[1];
-			parameter = "&"+parameter;//this is a flag to indicate that is a position in memory
-		}
-
-		if (commandNumber == 14) { //must to proccess an jz command
-			parameter = tokens[1];
-			parameter = "&"+parameter;//this is a flag to indicate that is a position in memory
-		}
-
-		if (commandNumber == 15) { //must to proccess an jn command
-			parameter = tokens[1];
-			parameter = "&"+parameter;//this is a flag to indicate that is a position in memory
+		objProgram.add(ObjectProgram.NUMBER, commandNumber);
+		for (int i=0;i<operandsOf(commandNumber);i++) {
+			String parameter = tokens[i+1];
+			if (ADDRESS_OPERAND[commandNumber] == i) //this is a flag to indicate that is a position in memory
+				objProgram.add(ObjectProgram.SYMBOL, objProgram.nameId(parameter, 0, parameter.length()));
+			else if (!parameter.isEmpty())
+				objProgram.add(parameter);
 		}
+	}
 
-		if (commandNumber == 16) { //must to proccess an jeq command
-            parameter = tokens[1];
-            parameter2 = tokens[2];
-            parameter3 = "&" + tokens[3];
-        }
-
-        if (commandNumber == 17) { //must to proccess an jneq command
-            parameter = tokens[1];
-            parameter2 = tokens[2];
-            parameter3 = "&" + tokens[3];
-        }
-
-        if (commandNumber == 18) { //must to proccess an jgt command
-            parameter = tokens[1];
-            parameter2 = tokens[2];
-            parameter3 = "&" + tokens[3];
-        }
-
-        if (commandNumber == 19) { //must to proccess an jlw command
-            parameter = tokens[1];
-            parameter2 = tokens[2];
-            parameter3 = "&" + tokens[3];
-        }
-
-        if (commandNumber == 20) { //must to proccess an call command
-            parameter = "&" + tokens[1];
-        }
-
-        if (commandNumber == 21) { //must to proccess an ret command
-            
-        }
-
-		objProgram.add(Integer.toString(commandNumber));
-		if (!parameter.isEmpty()) {
-			objProgram.add(parameter);
-		}
-		if (!parameter2.isEmpty()) {
-			objProgram.add(parameter2);
-		}
-		if (!parameter3.isEmpty()) { 
-			objProgram.add(parameter3);
-		}
+	private static int operandsOf(int commandNumber) {
+		if (commandNumber>=0 && commandNumber<OPERANDS.length)
+			return OPERANDS[commandNumber];
+		return 0;
 	}
 
 	/**
@@ -276,75 +284,47 @@ public class Assembler {
 	 * @return
 	 */
 	private int findCommandNumber(String[] tokens) {  
-		int p = commands.indexOf(tokens[0]);
-
-		if (p<0){ //the command isn't in the list. So it must have multiple formats
-			if ("move".equals(tokens[0])) //the command is a move
-				p = proccessMove(tokens);
-			else if ("add".equals(tokens[0]))
-				p = proccessAdd(tokens);
-			else if ("sub".equals(tokens[0]))
-				p = proccessSub(tokens);
-		}
+		int p = mnemonics.get(tokens[0]);
+
+		if (p >= commands.size()) //the command has multiple formats
+			p = formatOf(p-commands.size(), kindOf(tokens[1]), kindOf(tokens[2]));
         
 		return p;
 	}
 
+	private int kindOf(String token) {
+		if (token == null)
+			return Lexer.END;
+		lexer.reset(token);
+		return lexer.next();
+	}
+
 	/**
-	 * This method proccess a move command.
-	 * It must have differents formats, meaning differents internal commands
-	 * @param tokens
+	 * This method returns the id of the format of a command with multiple formats (add, sub, move),
+	 * according the kinds of its operands
+	 * @param command the index of the command in MULTIPLE_FORMATS
+	 * @param kind1 the kind (see Lexer) of the first operand
+	 * @param kind2 the kind of the second operand
 	 * @return
 	 */
-	private int proccessMove(String[] tokens) {  
-		String p1 = tokens[1];
-		String p2 = tokens[2];
-		int p=-1;
-
-		if ((p1.startsWith("%"))&&(p2.startsWith("%")))    // this is a moveRegReg comand
-			p = commands.indexOf("moveRegReg"); 
-        else if(p1.startsWith("&"))                        // this is a moveMemReg comand
-			p = commands.indexOf("moveMemReg");
-        else if (p1.startsWith("%"))                       // this is a moveRegMem comand
-			p = commands.indexOf("moveRegMem");
-        else                                                // this is a moveImmReg comand
-			p = commands.indexOf("moveImmReg");
-		
-		return p;
-	}
-    
-    private int proccessAdd(String[] tokens) {
-		String p1 = tokens[1];
-		String p2 = tokens[2];
-		int p=-1;
-
-		if ((p1.startsWith("%"))&&(p2.startsWith("%")))    //this is a addRegReg comand
-			p = commands.indexOf("addRegReg");
-        else if (p1.startsWith("&"))                       //this is a addMemReg comand
-            p = commands.indexOf("addMemReg");
-        else if (p1.startsWith("%"))                       //this is a addRegMem comand
-            p = commands.indexOf("addRegMem");
-        else                                               // this is a moveImmReg comand
-            p = commands.indexOf("addImmReg");
-        
-		return p;
+	private int formatOf(int command, int kind1, int kind2) {
+		if ((kind1 == Lexer.REGISTER)&&(kind2 == Lexer.REGISTER))
+			return formats[command][REG_REG];
+		else if (kind1 == Lexer.SYMBOL)
+			return formats[command][MEM_REG];
+		else if (kind1 == Lexer.REGISTER)
+			return formats[command][REG_MEM];
+		else
+			return formats[command][IMM_REG];
 	}
 
-	private int proccessSub(String[] tokens) {
-		String p1 = tokens[1];
-		String p2 = tokens[2];
-		int p=-1;
-
-		if ((p1.startsWith("%"))&&(p2.startsWith("%")))    //this is a addRegReg comand
-			p = commands.indexOf("subRegReg");
-        else if (p1.startsWith("&"))                       //this is a subMemReg comand
-            p = commands.indexOf("subMemReg");
-        else if (p1.startsWith("%"))                       //this is a subRegMem comand
-            p = commands.indexOf("subRegMem");
-        else                                               //this is a subImmReg comand
-            p = commands.indexOf("subImmReg");	
-	
-		return p;
+	/**
+	 * This method gives the labels found by parse, with their addresses, to the profiler,
+	 * so its report shows the counts of each label of the program
+	 * @param profiler
+	 */
+	public void addLabels(Profiler profiler) {
+		profiler.setLabels(labels, labelsAdresses);
 	}
 
 	/**
@@ -363,28 +343,190 @@ public class Assembler {
 		if (!checkLabels()) 
             return;
 
-		execProgram = (ArrayList<String>) objProgram.clone();
-		int position_Stack = replaceAllVariables();
-		replaceLabels(); //replacing all labels by the address they refer to
-		replaceRegisters(); //replacing all registers by the register id they refer to
-		saveExecFile(filename, position_Stack);
+		int position_Stack = resolve();
+		int words[] = execWords();
+		saveExecFile(filename, words, position_Stack);
+		saveBinaryExecFile(filename, words, position_Stack);
 		System.out.println("Finished");
 	}
 
+	/**
+	 * This method assembles a program in memory, with no files: the source is parsed
+	 * and the executable is returned as an image ready to be loaded in an architecture
+	 * (see Architecture.loadExecutable). The assembler can be used for many programs,
+	 * since each one starts with no lines, labels and variables
+	 * @param source the assembly program, a command, a label or a variable per line
+	 * @return
+	 * @throws IOException
+	 * @throws IllegalArgumentException if a label or a variable is not declared
+	 */
+	public ExecutableFile assemble(Reader source) throws IOException {
+		clear();
+		BufferedReader br = new BufferedReader(source);
+		String line;
+		while ((line = br.readLine()) != null)
+			parseLine(line);
+
+		String undeclared = findUndeclared();
+		if (undeclared != null)
+			throw new IllegalArgumentException("Variable or label "+undeclared+" not declared");
+		int position_Stack = resolve();
+		return newExecutable(execWords(), position_Stack);
+	}
+
+	public ExecutableFile assemble(String source) {
+		try {
+			return assemble(new StringReader(source));
+		} catch (IOException e) { //a string is read with no IO
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * This method assembles the file filename.dsf in two passes over the file, so the source and
+	 * the executable are never in memory (for machine generated programs bigger than the heap):
+	 * Pass 1: the labels get the address of the next command and the variables are placed from
+	 * the end of the memory, as in parse and replaceSymbols
+	 * Pass 2: each command and its operands, with the labels, the variables and the registers
+	 * replaced, are written to filename.dxf and filename.dxb.
+	 * Only the labels and the variables are kept. The files are the same made by makeExecutable
+	 * @param filename
+	 * @throws IOException
+	 * @throws IllegalArgumentException if a label or a variable is not declared (no file is kept)
+	 */
+	public void assembleStream(String filename) throws IOException {
+		SymbolTable variableTable = new SymbolTable();
+		SymbolTable labelTable = new SymbolTable();
+		int position_Stack = arch.getMemorySize()-1; //starting from the end of the memory
+		int size = 0;
+		String line;
+
+		BufferedReader br = new BufferedReader(new FileReader(filename+".dsf"));
+		try {
+			while ((line = br.readLine()) != null) {
+				int n = tokenize(line);
+				int commandNumber = n == 0 ? -1 : commandOf(line, n);
+				if (commandNumber >= 0)
+					size += 1+operandsOf(commandNumber);
+				else if (n > 0 && isLabel(line))
+					labelTable.define(line.substring(tokenStarts[0], tokenEnds[0]-1), size);
+				else //a variable (an empty line is an empty variable, as in parse)
+					variableTable.define(n == 0 ? line.trim() : line.substring(tokenStarts[0], tokenEnds[0]), position_Stack--);
+			}
+		} finally {
+			br.close();
+		}
+
+		br = new BufferedReader(new FileReader(filename+".dsf"));
+		BufferedWriter text = new BufferedWriter(new FileWriter(filename+".dxf"));
+		ExecutableFile.CodeWriter binary = new ExecutableFile.CodeWriter(filename, 0, position_Stack, arch.getMemorySize(), size+1);
+		boolean finished = false;
+		try {
+			while ((line = br.readLine()) != null) {
+				int n = tokenize(line);
+				int commandNumber = n == 0 ? -1 : commandOf(line, n);
+				if (commandNumber < 0)
+					continue;
+				writeWord(text, binary, commandNumber);
+				for (int i=0;i<operandsOf(commandNumber);i++)
+					writeWord(text, binary, operandWord(line, i+1, ADDRESS_OPERAND[commandNumber] == i, variableTable, labelTable));
+			}
+			writeWord(text, binary, -1); //the program is finished
+			text.write(Integer.toString(position_Stack));
+			finished = true;
+		} finally {
+			br.close();
+			text.close();
+			binary.close();
+			if (!finished) {
+				new File(filename+".dxf").delete();
+				new File(filename+ExecutableFile.EXTENSION).delete();
+			}
+		}
+		if (binary.getCount() != size+1)
+			throw new IOException(filename+".dsf was changed while it was assembled");
+		System.out.println("Finished");
+	}
+
+	private static void writeWord(BufferedWriter text, ExecutableFile.CodeWriter binary, int word) throws IOException {
+		text.write(Integer.toString(word));
+		text.write('\n');
+		binary.write(word);
+	}
+
+	/**
+	 * This method returns the word of an operand of the tokenized line, as in the executable program
+	 * @param line
+	 * @param token
+	 * @param address if the operand is a memory address written with no &
+	 * @param variableTable
+	 * @param labelTable
+	 * @return
+	 */
+	private int operandWord(String line, int token, boolean address, SymbolTable variableTable, SymbolTable labelTable) {
+		int start = tokenStarts[token];
+		int end = tokenEnds[token];
+		if (!address && tokenKinds[token] == Lexer.IMMEDIATE)
+			return tokenValues[token];
+		if (!address && tokenKinds[token] == Lexer.REGISTER)
+			return registerIds.get(line, start+1, end);
+		if (!address && tokenKinds[token] != Lexer.SYMBOL)
+			throw new NumberFormatException("For input string: \""+line.substring(start, end)+"\"");
+
+		String name = line.substring(address ? start : start+1, end);
+		if (variableTable.contains(name)) //a label with the name of a variable is not used
+			return variableTable.getAddress(name);
+		if (labelTable.contains(name))
+			return labelTable.getAddress(name);
+		throw new IllegalArgumentException("Variable or label "+name+" not declared");
+	}
+
+	private void clear() {
+		lines.clear();
+		labels.clear();
+		labelsAdresses.clear();
+		variables.clear();
+		objProgram = new ObjectProgram();
+	}
+
+	/**
+	 * This method makes the executable program from the object program
+	 * @return the position after the variables, where the stack starts
+	 */
+	private int resolve() {
+		execProgram = objProgram.copy();
+		int position_Stack = replaceSymbols(); //replacing all variables and labels by their addresses
+		replaceRegisters(); //replacing all registers by the register id they refer to
+		return position_Stack;
+	}
+
+	/**
+	 * This method returns the words of the executable program, ended by the -1 flag
+	 * @return
+	 */
+	private int[] execWords() {
+		int words[] = execProgram.toWords(1);
+		words[words.length-1] = -1; //the program is finished
+		return words;
+	}
+
+	private ExecutableFile newExecutable(int words[], int position_Stack) {
+		ExecutableFile exec = new ExecutableFile(0, position_Stack, arch.getMemorySize());
+		exec.addSection(ExecutableFile.SECTION_CODE, 0, words);
+		return exec;
+	}
+
 	/**
 	 * This method replaces all the registers names by its correspondings ids.
-	 * registers names must be prefixed by %
+	 * registers names must be prefixed by %. Each name is looked up once, by its id
 	 */
 	protected void replaceRegisters() {
-		int p=0;
-		for (String line:execProgram) {
-			if (line.startsWith("%")) { //this line is a register
-				line = line.substring(1, line.length());
-				int regId = searchRegisterId(line, arch.getRegistersList());
-				String newLine = Integer.toString(regId);
-				execProgram.set(p, newLine);
-			}
-			p++;
+		int regIds[] = new int[execProgram.getNumNames()];
+		for (int id=0;id<regIds.length;id++)
+			regIds[id] = registerIds.get(execProgram.getName(id));
+		for (int p=0;p<execProgram.size();p++) {
+			if (execProgram.getKind(p) == ObjectProgram.REGISTER) //this word is a register
+				execProgram.set(p, ObjectProgram.NUMBER, regIds[execProgram.getValue(p)]);
 		}
 	}
 
@@ -394,27 +536,60 @@ public class Assembler {
 	 * and decreases (creating a stack)
 	 */
 	protected int replaceAllVariables() {
+		SymbolTable table = new SymbolTable();
+		int position = defineVariables(table);
+		table.resolve(execProgram);
+		return position;
+	}
+
+	/**
+	 * This method replaces all variables and labels by their addresses, in a single pass
+	 * over the execprogram. A label with the name of a variable is not replaced
+	 * @return the position after the variables, where the stack starts
+	 */
+	protected int replaceSymbols() {
+		SymbolTable table = new SymbolTable();
+		int position = defineVariables(table);
+		defineLabels(table);
+		table.resolve(execProgram);
+		return position;
+	}
+
+	/**
+	 * This method puts the variables in the table with their addresses,
+	 * from the end of the memory
+	 * @param table
+	 * @return the position after the variables
+	 */
+	private int defineVariables(SymbolTable table) {
 		int position = arch.getMemorySize()-1; //starting from the end of the memory
 
 		for (String var : this.variables) { //scanning all variables
-			replaceVariable(var, position);
+			table.define(var, position);
 			position--;
 		}
 
 		return position;
 	}
 
+	private void defineLabels(SymbolTable table) {
+		for (int i=0;i<labels.size();i++)
+			table.define(labels.get(i), labelsAdresses.get(i));
+	}
+
 	/**
-	 * This method saves the execFile collection into the output file
+	 * This method saves the words of the executable program into the output file
 	 * @param filename
+	 * @param words the program, ended by the -1 flag
 	 * @throws IOException 
 	 */
-	private void saveExecFile(String filename, int position_Stack) throws IOException {
+	private void saveExecFile(String filename, int words[], int position_Stack) throws IOException {
 		File file = new File(filename+".dxf");
 		BufferedWriter writer = new BufferedWriter(new FileWriter(file));
-		for (String l : execProgram)
-			writer.write(l+"\n");
-		writer.write("-1\n"); //-1 is a flag indicating that the program is finished
+		for (int w : words) { //the last one is -1, the flag indicating that the program is finished
+			writer.write(Integer.toString(w));
+			writer.write('\n');
+		}
 
 		// Adicionando, após o fim do programa, a posição da fila
 		String p = Integer.toString(position_Stack);
@@ -423,26 +598,25 @@ public class Assembler {
 		writer.close();
 	}
 
+	/**
+	 * This method saves the words of the executable program into the binary output file (.dxb),
+	 * with the same words of the text file: the program, the -1 flag and the stack position in the header
+	 * @param filename
+	 * @param words the program, ended by the -1 flag
+	 * @throws IOException
+	 */
+	private void saveBinaryExecFile(String filename, int words[], int position_Stack) throws IOException {
+		newExecutable(words, position_Stack).write(filename);
+	}
+
 	/**
 	 * This method replaces all labels in the execprogram by the corresponding
 	 * address they refer to
 	 */
 	protected void replaceLabels() {
-		int i=0;
-		for (String label : labels) { //searching all labels
-			label = "&"+label;
-			int labelPointTo = labelsAdresses.get(i);
-			int lineNumber = 0;
-
-			for (String l : execProgram) {
-				if (l.equals(label)) {//this label must be replaced by the address
-					String newLine = Integer.toString(labelPointTo); // the address
-					execProgram.set(lineNumber, newLine);
-				}
-				lineNumber++;
-			}
-			i++;
-		}
+		SymbolTable table = new SymbolTable();
+		defineLabels(table);
+		table.resolve(execProgram);
 	}
 
 	/**
@@ -453,62 +627,59 @@ public class Assembler {
 	 * @param position
 	 */
 	protected void replaceVariable(String var, int position) {
-		var = "&"+var;
-		int i=0;
-		for (String s:execProgram) {
-			if (s.equals(var)) {
-				s = Integer.toString(position);
-				execProgram.set(i, s);
-			}
-			i++;
-		}
+		SymbolTable table = new SymbolTable();
+		table.define(var, position);
+		table.resolve(execProgram);
 	}
 
 	/**
 	 * This method checks if all labels and variables in the object program were in the source
 	 * program.
-	 * The labels and the variables collection are used for this
+	 * Each label and variable marks the id of its name, so each reference is a single array access
 	 */
 	protected boolean checkLabels() {
 		System.out.println("Checking labels and variables");
-		for (String line:objProgram) {
-			boolean found = false;
-			if (line.startsWith("&")) { //if starts with "&", it is a label or a variable
-				line = line.substring(1, line.length());
-				if (labels.contains(line))
-					found = true;
-				if (variables.contains(line))
-					found = true;
-				if (!found) {
-					System.out.println("FATAL ERROR! Variable or label "+line+" not declared!");
-					return false;
-				}
-			}
+		String undeclared = findUndeclared();
+		if (undeclared != null) {
+			System.out.println("FATAL ERROR! Variable or label "+undeclared+" not declared!");
+			return false;
 		}
 		return true;
 	}
-	
+
 	/**
-	 * This method searches for a register in the architecture register list
-	 * by the register name
-	 * @param line
-	 * @param registersList
-	 * @return
+	 * This method returns the first label or variable of the object program not declared
+	 * @return null if all of them are declared
 	 */
-	private int searchRegisterId(String line, ArrayList<Register> registersList) {
-		int i=0;
-		for (Register r:registersList) {
-			if (line.equals(r.getRegisterName())) {
-				return i;
-			}
-			i++;
+	private String findUndeclared() {
+		boolean declared[] = new boolean[objProgram.getNumNames()];
+		for (String label : labels)
+			declare(declared, label);
+		for (String var : variables)
+			declare(declared, var);
+		for (int p=0;p<objProgram.size();p++) {
+			if (objProgram.getKind(p) == ObjectProgram.SYMBOL && !declared[objProgram.getValue(p)]) //a label or a variable
+				return objProgram.getName(objProgram.getValue(p));
 		}
-		return -1;
+		return null;
 	}
 
+	private void declare(boolean declared[], String name) {
+		int id = objProgram.findName(name);
+		if (id >= 0)
+			declared[id] = true;
+	}
+	
 	public static void main(String[] args) throws IOException {
 		String filename = "program";
 		Assembler assembler = new Assembler();
+		if (args.length > 0) //the memory size of the architecture
+			assembler = new Assembler(new Architecture(false, ExecutionMode.MICROPROGRAM, Integer.parseInt(args[0])));
+		if (args.length > 1 && args[1].equals("stream")) { //the source is read twice and never kept
+			System.out.println("Assembling "+filename+".dsf in two passes");
+			assembler.assembleStream(filename);
+			return;
+		}
 		System.out.println("Reading source assembler file: "+filename+".dsf");
 		assembler.read(filename);
 		System.out.println("Generating the object program");
@@ -0,0 +1,107 @@
+package assembler;
+
+/**
+ * This class splits a line of assembly in tokens separated by spaces, without creating
+ * any object: each token is a range [start, end) of the line, classified by its first char
+ * (a register "%name", a symbol "&name", an immediate number or a name)
+ */
+public class Lexer {
+
+	public static final int END = 0;        //there are no more tokens in the line
+	public static final int NAME = 1;       //a command, a variable, a label or a symbol without &
+	public static final int REGISTER = 2;
+	public static final int SYMBOL = 3;
+	public static final int IMMEDIATE = 4;
+
+	private CharSequence text;
+	private int position;
+	private int start;
+	private int end;
+	private int kind;
+
+	public void reset(CharSequence text) {
+		this.text = text;
+		position = 0;
+		start = end = 0;
+		kind = END;
+	}
+
+	private static boolean isSpace(char c) {
+		return c == ' ' || c == '\t';
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	/**
+	 * This method reads the next token of the line
+	 * @return its kind
+	 */
+	public int next() {
+		int length = text.length();
+		while (position < length && isSpace(text.charAt(position)))
+			position++;
+		start = position;
+		while (position < length && !isSpace(text.charAt(position)))
+			position++;
+		end = position;
+
+		if (start == end)
+			kind = END;
+		else if (text.charAt(start) == '%')
+			kind = REGISTER;
+		else if (text.charAt(start) == '&')
+			kind = SYMBOL;
+		else if (isNumber())
+			kind = IMMEDIATE;
+		else
+			kind = NAME;
+		return kind;
+	}
+
+	private boolean isNumber() {
+		int i = start;
+		if (text.charAt(i) == '-' || text.charAt(i) == '+')
+			i++;
+		if (i == end)
+			return false;
+		for (;i<end;i++) {
+			if (!isDigit(text.charAt(i)))
+				return false;
+		}
+		return true;
+	}
+
+	public int getKind() {
+		return kind;
+	}
+
+	public int getStart() {
+		return start;
+	}
+
+	public int getEnd() {
+		return end;
+	}
+
+	/**
+	 * This method returns the value of an IMMEDIATE token
+	 * @return
+	 * @throws NumberFormatException if the value does not fit in an int, as Integer.parseInt
+	 */
+	public int getValue() {
+		int i = start;
+		boolean negative = text.charAt(i) == '-';
+		if (negative || text.charAt(i) == '+')
+			i++;
+		long limit = negative ? -(long) Integer.MIN_VALUE : Integer.MAX_VALUE;
+		long value = 0;
+		for (;i<end;i++) {
+			value = value*10 + (text.charAt(i) - '0');
+			if (value > limit)
+				throw new NumberFormatException("For input string: \""+text.subSequence(start, end)+"\"");
+		}
+		return (int) (negative ? -value : value);
+	}
+}
@@ -0,0 +1,208 @@
+package assembler;
+
+import java.util.Arrays;
+
+/**
+ * This class keeps an object (or executable) program as two arrays of primitives: for each
+ * word, its kind and its value. A number is kept as its value, and a register or a symbol
+ * (a label or a variable) as the id of its name, so each name is a single string no matter
+ * how many times the program refers to it. The names are found by a hash of the chars of a
+ * range of the line, so the parser does not create a string for each reference.
+ * The words can also be read and added in the text form of the old object program
+ * ("12", "%RPG0", "&label"), as the tests do
+ */
+public class ObjectProgram {
+
+	public static final int NUMBER = 0;   //a command id, an immediate or an address: the value is the word
+	public static final int REGISTER = 1; //the value is the id of the register name (without %)
+	public static final int SYMBOL = 2;   //the value is the id of the label or variable name (without &)
+	public static final int TEXT = 3;     //a word that is none of the others, kept as it is written
+
+	private byte kinds[];
+	private int values[];
+	private int size;
+
+	private String names[];
+	private int numNames;
+	private int slots[]; //open addressing: the id of a name + 1, or 0 for an empty slot
+
+	public ObjectProgram() {
+		kinds = new byte[64];
+		values = new int[64];
+		names = new String[16];
+		slots = new int[32];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getKind(int position) {
+		return kinds[position];
+	}
+
+	public int getValue(int position) {
+		return values[position];
+	}
+
+	public void add(int kind, int value) {
+		if (size == values.length) {
+			kinds = Arrays.copyOf(kinds, size*2);
+			values = Arrays.copyOf(values, size*2);
+		}
+		kinds[size] = (byte) kind;
+		values[size] = value;
+		size++;
+	}
+
+	public void set(int position, int kind, int value) {
+		kinds[position] = (byte) kind;
+		values[position] = value;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	private static int hash(CharSequence text, int start, int end) {
+		int h = 0;
+		for (int i=start;i<end;i++)
+			h = 31*h + text.charAt(i);
+		return h ^ (h >>> 16);
+	}
+
+	private boolean matches(String name, CharSequence text, int start, int end) {
+		if (name.length() != end-start)
+			return false;
+		for (int i=0;i<name.length();i++) {
+			if (name.charAt(i) != text.charAt(start+i))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * This method returns the slot of the name in the range [start, end) of the text,
+	 * or the empty slot where it must be put
+	 */
+	private int slotOf(CharSequence text, int start, int end) {
+		int mask = slots.length-1;
+		int slot = hash(text, start, end) & mask;
+		while (slots[slot] != 0 && !matches(names[slots[slot]-1], text, start, end))
+			slot = (slot+1) & mask;
+		return slot;
+	}
+
+	/**
+	 * This method returns the id of the name in the range [start, end) of the text.
+	 * A new name gets the next id, and only then a string is created for it
+	 * @param text
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	public int nameId(CharSequence text, int start, int end) {
+		int slot = slotOf(text, start, end);
+		if (slots[slot] != 0)
+			return slots[slot]-1;
+		if (numNames == names.length)
+			names = Arrays.copyOf(names, numNames*2);
+		names[numNames] = text.subSequence(start, end).toString();
+		slots[slot] = ++numNames;
+		if (numNames*2 > slots.length) //keeping the table at most half full
+			rehash();
+		return numNames-1;
+	}
+
+	private void rehash() {
+		slots = new int[slots.length*2];
+		for (int id=0;id<numNames;id++)
+			slots[slotOf(names[id], 0, names[id].length())] = id+1;
+	}
+
+	/**
+	 * This method returns the id of a name, or -1 if the program has no word with it
+	 * @param name
+	 * @return
+	 */
+	public int findName(String name) {
+		return slots[slotOf(name, 0, name.length())]-1;
+	}
+
+	public String getName(int id) {
+		return names[id];
+	}
+
+	public int getNumNames() {
+		return numNames;
+	}
+
+	/**
+	 * This method adds a word written in the text form: "&name" is a symbol,
+	 * "%name" is a register and an integer is a number
+	 * @param word
+	 */
+	public void add(String word) {
+		if (word.startsWith("&"))
+			add(SYMBOL, nameId(word, 1, word.length()));
+		else if (word.startsWith("%"))
+			add(REGISTER, nameId(word, 1, word.length()));
+		else {
+			try {
+				add(NUMBER, Integer.parseInt(word));
+			} catch (NumberFormatException e) {
+				add(TEXT, nameId(word, 0, word.length()));
+			}
+		}
+	}
+
+	/**
+	 * This method returns a word in the text form
+	 * @param position
+	 * @return
+	 */
+	public String get(int position) {
+		switch (kinds[position]) {
+		case REGISTER:
+			return "%"+names[values[position]];
+		case SYMBOL:
+			return "&"+names[values[position]];
+		case TEXT:
+			return names[values[position]];
+		default:
+			return Integer.toString(values[position]);
+		}
+	}
+
+	/**
+	 * This method returns a copy of the program, with its own names
+	 * @return
+	 */
+	public ObjectProgram copy() {
+		ObjectProgram copy = new ObjectProgram();
+		copy.kinds = Arrays.copyOf(kinds, Math.max(size, 1));
+		copy.values = Arrays.copyOf(values, Math.max(size, 1));
+		copy.size = size;
+		copy.names = names.clone();
+		copy.numNames = numNames;
+		copy.slots = slots.clone();
+		return copy;
+	}
+
+	/**
+	 * This method returns the words of a program with all its names replaced by numbers,
+	 * with room for extra words after them
+	 * @param extra
+	 * @return
+	 * @throws NumberFormatException if a word is not a number
+	 */
+	public int[] toWords(int extra) {
+		int words[] = new int[size+extra];
+		for (int i=0;i<size;i++) {
+			if (kinds[i] != NUMBER)
+				throw new NumberFormatException("For input string: \""+get(i)+"\"");
+			words[i] = values[i];
+		}
+		return words;
+	}
+}
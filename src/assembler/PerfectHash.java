@@ -0,0 +1,85 @@
+package assembler;
+
+import java.util.List;
+
+/**
+ * This class maps a fixed set of names (the commands and the registers of the architecture)
+ * to their positions in a list. The table is built with a seed that leaves each name alone
+ * in its slot, so a lookup is a hash of the chars and a single comparison.
+ * The names are looked up in a range of a CharSequence, so no substring is created
+ */
+public class PerfectHash {
+
+	private String keys[];
+	private int values[];
+	private int seed;
+	private int mask;
+
+	/**
+	 * The value of each name is its index in the list. A repeated name keeps its first index
+	 * @param names
+	 */
+	public PerfectHash(List<String> names) {
+		int size = Integer.highestOneBit(Math.max(names.size(), 1)) * 4;
+		while (!build(names, size))
+			size *= 2;
+	}
+
+	/**
+	 * This method tries the seeds for a table of the size, until one leaves each name alone
+	 * @param names
+	 * @param size
+	 * @return false if no seed was found for this size
+	 */
+	private boolean build(List<String> names, int size) {
+		for (seed=1;seed<=1000;seed++) {
+			keys = new String[size];
+			values = new int[size];
+			mask = size-1;
+			boolean perfect = true;
+			for (int i=0;i<names.size() && perfect;i++) {
+				String name = names.get(i);
+				int slot = hash(name, 0, name.length(), seed) & mask;
+				if (keys[slot] == null) {
+					keys[slot] = name;
+					values[slot] = i;
+				}
+				else if (!keys[slot].equals(name))
+					perfect = false;
+			}
+			if (perfect)
+				return true;
+		}
+		return false;
+	}
+
+	private static int hash(CharSequence text, int start, int end, int seed) {
+		int h = seed * 0x9E3779B9;
+		for (int i=start;i<end;i++)
+			h = (h ^ text.charAt(i)) * 0x01000193;
+		return h ^ (h >>> 15);
+	}
+
+	/**
+	 * This method returns the value of the name in the range [start, end) of the text
+	 * @param text
+	 * @param start
+	 * @param end
+	 * @return -1 if the name is not in the table
+	 */
+	public int get(CharSequence text, int start, int end) {
+		int slot = hash(text, start, end, seed) & mask;
+		String key = keys[slot];
+		if (key == null || key.length() != end-start)
+			return -1;
+		for (int i=0;i<key.length();i++) {
+			if (key.charAt(i) != text.charAt(start+i))
+				return -1;
+		}
+		return values[slot];
+	}
+
+	public int get(String name) {
+		return get(name, 0, name.length());
+	}
+}
@@ -0,0 +1,116 @@
+package assembler;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * This class keeps the symbols (labels and variables) of a program with their addresses,
+ * in a hash map, and for each one the positions of the program referring to it (the fixups).
+ * The references are found in a single pass over the program, and then each fixup is
+ * replaced by the address, so the resolution does not depend on the amount of symbols
+ */
+public class SymbolTable {
+
+	private static class Symbol {
+		private int address;
+		private int fixups[];
+		private int numFixups;
+
+		private Symbol(int address) {
+			this.address = address;
+		}
+	}
+
+	private HashMap<String, Symbol> symbols;
+
+	public SymbolTable() {
+		symbols = new HashMap<String, Symbol>();
+	}
+
+	/**
+	 * This method adds a symbol. A symbol already in the table keeps its first address
+	 * @param name
+	 * @param address
+	 * @return false if the symbol was already in the table
+	 */
+	public boolean define(String name, int address) {
+		if (symbols.containsKey(name))
+			return false;
+		symbols.put(name, new Symbol(address));
+		return true;
+	}
+
+	public boolean contains(String name) {
+		return symbols.containsKey(name);
+	}
+
+	/**
+	 * This method returns the address of the symbol, or -1 if it is not in the table
+	 * @param name
+	 * @return
+	 */
+	public int getAddress(String name) {
+		Symbol symbol = symbols.get(name);
+		return symbol == null ? -1 : symbol.address;
+	}
+
+	public int size() {
+		return symbols.size();
+	}
+
+	/**
+	 * This method keeps a position of the program that must be replaced by the symbol address
+	 * @param name
+	 * @param position
+	 * @return false if the symbol is not in the table
+	 */
+	public boolean addFixup(String name, int position) {
+		Symbol symbol = symbols.get(name);
+		if (symbol == null)
+			return false;
+		addFixup(symbol, position);
+		return true;
+	}
+
+	private static void addFixup(Symbol symbol, int position) {
+		if (symbol.fixups == null) //only the symbols referred to get the array
+			symbol.fixups = new int[2];
+		else if (symbol.numFixups == symbol.fixups.length)
+			symbol.fixups = Arrays.copyOf(symbol.fixups, symbol.numFixups*2);
+		symbol.fixups[symbol.numFixups++] = position;
+	}
+
+	/**
+	 * This method returns how many positions refer to the symbol
+	 * @param name
+	 * @return
+	 */
+	public int getFixups(String name) {
+		Symbol symbol = symbols.get(name);
+		return symbol == null ? 0 : symbol.numFixups;
+	}
+
+	/**
+	 * This method finds, in a single pass, the references to the symbols in the program
+	 * and replaces them by the addresses. Each name of the program is looked up once,
+	 * by its id. The references to names that are not in the table are kept as they are
+	 * @param program
+	 */
+	public void resolve(ObjectProgram program) {
+		Symbol byId[] = new Symbol[program.getNumNames()];
+		for (int id=0;id<byId.length;id++)
+			byId[id] = symbols.get(program.getName(id));
+		for (int position=0;position<program.size();position++) {
+			if (program.getKind(position) == ObjectProgram.SYMBOL) {
+				Symbol symbol = byId[program.getValue(position)];
+				if (symbol != null)
+					addFixup(symbol, position);
+			}
+		}
+		for (Symbol symbol : symbols.values()) {
+			for (int i=0;i<symbol.numFixups;i++)
+				program.set(symbol.fixups[i], ObjectProgram.NUMBER, symbol.address);
+			symbol.numFixups = 0;
+		}
+	}
+}
@@ -2,10 +2,18 @@ package assembler;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
 
 import org.junit.Test;
 
+import architecture.Architecture;
+import architecture.ExecutableFile;
+import architecture.ExecutionMode;
+
 public class testAssembler {
 
 	@Test
@@ -28,7 +36,7 @@ public class testAssembler {
 		 */
 		Assembler ass = new Assembler();
 		String commandLine[] = new String[3];
-		ArrayList<String> returnedObj = new ArrayList<>();
+		ObjectProgram returnedObj;
 		
 		//first test: add
 		commandLine[0] = "add";
@@ -40,7 +48,6 @@ public class testAssembler {
 		assertEquals(2, ass.getObjProgram().size()); //only two lines: the command and the address
 		
 		//second test: sub
-		returnedObj = new ArrayList<>();
 		ass = new Assembler();
 		commandLine[0] = "sub";
 		commandLine[1] = "variable";
@@ -51,7 +58,6 @@ public class testAssembler {
 		assertEquals(2, ass.getObjProgram().size()); //only two lines: the command and the address
 		
 		//third test: jmp
-		returnedObj = new ArrayList<>();
 		ass = new Assembler();
 		commandLine[0] = "jmp";
 		commandLine[1] = "label";
@@ -62,7 +68,6 @@ public class testAssembler {
 		assertEquals(2, ass.getObjProgram().size()); //only two lines: the command and the address
 		
 		//fourth test: jz
-		returnedObj = new ArrayList<>();
 		ass = new Assembler();
 		commandLine[0] = "jz";
 		commandLine[1] = "label";
@@ -73,7 +78,6 @@ public class testAssembler {
 		assertEquals(2, ass.getObjProgram().size()); //only two lines: the command and the address
 		
 		//fifth test: jn
-		returnedObj = new ArrayList<>();
 		ass = new Assembler();
 		commandLine[0] = "jn";
 		commandLine[1] = "label";
@@ -84,7 +88,6 @@ public class testAssembler {
 		assertEquals(2, ass.getObjProgram().size()); //only two lines: the command and the address
 		
 		//sixth test: read
-		returnedObj = new ArrayList<>();
 		ass = new Assembler();
 		commandLine[0] = "read";
 		commandLine[1] = "address";
@@ -95,7 +98,6 @@ public class testAssembler {
 		assertEquals(2, ass.getObjProgram().size()); //only two lines: the command and the address
 		
 		//seventh test: store
-		returnedObj = new ArrayList<>();
 		ass = new Assembler();
 		commandLine[0] = "store";
 		commandLine[1] = "address";
@@ -106,7 +108,6 @@ public class testAssembler {
 		assertEquals(2, ass.getObjProgram().size()); //only two lines: the command and the address
 		
 		//eighth test: ldi
-		returnedObj = new ArrayList<>();
 		ass = new Assembler();
 		commandLine[0] = "ldi";
 		commandLine[1] = "40";
@@ -117,7 +118,6 @@ public class testAssembler {
 		assertEquals(2, ass.getObjProgram().size()); //only two lines: the command and the immediate
 		
 		//nineth test: inc
-		returnedObj = new ArrayList<>();
 		ass = new Assembler();
 		commandLine[0] = "inc";
 		commandLine[1] = "address";
@@ -127,7 +127,6 @@ public class testAssembler {
 		assertEquals(1, ass.getObjProgram().size()); //only one lines: the command and no parameters
 		
 		//tenth test: move %regA %regB
-		returnedObj = new ArrayList<>();
 		ass = new Assembler();
 		commandLine[0] = "move";
 		commandLine[1] = "%RPG0";
@@ -150,7 +149,6 @@ public class testAssembler {
 		//move %RPG0 %RPG1
 		//read adr3
 		//let's start!!!
-		returnedObj = new ArrayList<>();
 		ass = new Assembler();
 		commandLine[0] = "sub";
 		commandLine[1] = "adr1";
@@ -208,7 +206,7 @@ public class testAssembler {
 	@Test
 	public void testParse() {
 		Assembler ass = new Assembler();
-		ArrayList<String> returnedObj = new ArrayList<>();
+		ObjectProgram returnedObj;
 		ArrayList<String> sourceProgram = new ArrayList<>();
 		
 		//inserting the following program
@@ -456,6 +454,25 @@ public class testAssembler {
 		assertEquals("125", ass.getExecProgram().get(10));
 		assertEquals("125", ass.getExecProgram().get(12));
 	}
+
+	@Test
+	public void testReplaceAllVariablesConfiguredMemory() {
+		//a 1M positions memory: the variables are placed from its end
+		Assembler ass = new Assembler(new Architecture(false, ExecutionMode.MICROPROGRAM, 1 << 20));
+		ArrayList<String> sampleexec = new ArrayList<>();
+		sampleexec.add("9");
+		sampleexec.add("&var1");
+		sampleexec.add("&var2");
+		ass.setExecProgram(sampleexec);
+		ass.getVariables().add("var1");
+		ass.getVariables().add("var2");
+
+		int stack = ass.replaceAllVariables();
+
+		assertEquals(Integer.toString((1 << 20)-1), ass.getExecProgram().get(1));
+		assertEquals(Integer.toString((1 << 20)-2), ass.getExecProgram().get(2));
+		assertEquals((1 << 20)-3, stack);
+	}
 	
 	@Test
 	public void testReplaceRegisters() {
@@ -610,4 +627,256 @@ public class testAssembler {
 	public void testRead() {
 		fail("Not yet implemented");
 	}
+	@Test
+	public void testReplaceSymbols() {
+		Assembler ass = new Assembler();
+		ArrayList<String> sampleexec = new ArrayList<>();
+		sampleexec.add("13");
+		sampleexec.add("&label1");
+		sampleexec.add("11");
+		sampleexec.add("&var1");
+		sampleexec.add("&label2");
+		sampleexec.add("&var1");
+		sampleexec.add("&unknown");
+		ass.setExecProgram(sampleexec);
+		ass.getVariables().add("var1");
+		ass.getVariables().add("var2");
+		ass.getLabels().add("label1");
+		ass.getLabels().add("label2");
+		ass.getLabels().add("var1"); //a label with the name of a variable is not used
+		ass.getLabelsAddresses().add(4);
+		ass.getLabelsAddresses().add(9);
+		ass.getLabelsAddresses().add(2);
+
+		//the variables are from the end of the memory (128 positions), the stack is after them
+		assertEquals(125, ass.replaceSymbols());
+		assertEquals("4", ass.getExecProgram().get(1));
+		assertEquals("127", ass.getExecProgram().get(3));
+		assertEquals("9", ass.getExecProgram().get(4));
+		assertEquals("127", ass.getExecProgram().get(5));
+		assertEquals("&unknown", ass.getExecProgram().get(6));
+	}
+
+	@Test
+	public void testSymbolTable() {
+		SymbolTable table = new SymbolTable();
+		assertTrue(table.define("laco", 12));
+		assertFalse(table.define("laco", 30)); //the first address is kept
+		assertEquals(12, table.getAddress("laco"));
+		assertEquals(-1, table.getAddress("fim"));
+		assertTrue(table.contains("laco"));
+		assertFalse(table.contains("fim"));
+		assertTrue(table.addFixup("laco", 3));
+		assertFalse(table.addFixup("fim", 3));
+		assertEquals(1, table.getFixups("laco"));
+
+		//many symbols are resolved in a single pass
+		ObjectProgram program = new ObjectProgram();
+		table = new SymbolTable();
+		for (int i=0;i<20000;i++) {
+			table.define("l"+i, i);
+			program.add("13");
+			program.add("&l"+(19999-i));
+		}
+		assertEquals(20000, table.size());
+		table.resolve(program);
+		assertEquals("19999", program.get(1));
+		assertEquals("0", program.get(39999));
+		assertEquals(0, table.getFixups("l0")); //the fixups were replaced
+	}
+
+	@Test
+	public void testLexer() {
+		Lexer lexer = new Lexer();
+		String line = "jgt  %RPG0 &var -12 laco: 7x";
+		lexer.reset(line);
+		assertEquals(Lexer.NAME, lexer.next());
+		assertEquals("jgt", line.substring(lexer.getStart(), lexer.getEnd()));
+		assertEquals(Lexer.REGISTER, lexer.next()); //the spaces between the tokens are skipped
+		assertEquals(5, lexer.getStart());
+		assertEquals(Lexer.SYMBOL, lexer.next());
+		assertEquals(Lexer.IMMEDIATE, lexer.next());
+		assertEquals(-12, lexer.getValue());
+		assertEquals(Lexer.NAME, lexer.next());
+		assertEquals(':', line.charAt(lexer.getEnd()-1));
+		assertEquals(Lexer.NAME, lexer.next()); //not a number
+		assertEquals(Lexer.END, lexer.next());
+		assertEquals(Lexer.END, lexer.next());
+
+		//the values out of the int range are not accepted, as Integer.parseInt does
+		lexer.reset("2147483647 -2147483648 +2147483648 -2147483649 99999999999999999999");
+		lexer.next();
+		assertEquals(Integer.MAX_VALUE, lexer.getValue());
+		lexer.next();
+		assertEquals(Integer.MIN_VALUE, lexer.getValue());
+		for (int i=0;i<3;i++) {
+			assertEquals(Lexer.IMMEDIATE, lexer.next());
+			try {
+				lexer.getValue();
+				fail("a value out of the int range was read");
+			} catch (NumberFormatException e) {
+			}
+		}
+	}
+
+	@Test
+	public void testPerfectHash() {
+		Architecture arch = new Architecture();
+		PerfectHash hash = new PerfectHash(arch.getCommandsList());
+		for (int i=0;i<arch.getCommandsList().size();i++)
+			assertEquals(i, hash.get(arch.getCommandsList().get(i)));
+		assertEquals(-1, hash.get("mov"));
+		assertEquals(-1, hash.get(""));
+		String line = "  jneq %RPG0";
+		assertEquals(arch.getCommandsList().indexOf("jneq"), hash.get(line, 2, 6));
+		assertEquals(-1, hash.get(line, 2, 5));
+	}
+
+	@Test
+	public void testParseFormats() {
+		Assembler ass = new Assembler();
+		ArrayList<String> sourceProgram = new ArrayList<>();
+		sourceProgram.add("var1");
+		sourceProgram.add("move 10 %RPG0");
+		sourceProgram.add("laco:");
+		sourceProgram.add("add &var1 %RPG1");
+		sourceProgram.add("sub %RPG1 var1");
+		sourceProgram.add("move %RPG0 %RPG1");
+		sourceProgram.add("jlw %RPG1 %RPG0 laco");
+		sourceProgram.add("call laco");
+		sourceProgram.add("ret");
+		ass.setLines(sourceProgram);
+		ass.parse();
+
+		String expected[] = {"11", "10", "%RPG0",
+							 "1", "&var1", "%RPG1",
+							 "6", "%RPG1", "&var1",
+							 "10", "%RPG0", "%RPG1",
+							 "19", "%RPG1", "%RPG0", "&laco",
+							 "20", "&laco",
+							 "21"};
+		assertEquals(expected.length, ass.getObjProgram().size());
+		for (int i=0;i<expected.length;i++)
+			assertEquals(expected[i], ass.getObjProgram().get(i));
+		assertEquals("laco", ass.getLabels().get(0));
+		assertEquals(3, (int) ass.getLabelsAddresses().get(0));
+		assertEquals("var1", ass.getVariables().get(0));
+		assertEquals(1, ass.getVariables().size());
+	}
+
+	@Test
+	public void testObjectProgram() {
+		ObjectProgram program = new ObjectProgram();
+		String line = "jgt %RPG0 laco";
+		program.add(ObjectProgram.NUMBER, 18);
+		program.add(ObjectProgram.REGISTER, program.nameId(line, 5, 9));
+		program.add(ObjectProgram.SYMBOL, program.nameId(line, 10, 14));
+		program.add("&laco"); //the same name has the same id
+		program.add("x1");
+		assertEquals(5, program.size());
+		assertEquals(3, program.getNumNames());
+		assertEquals(program.getValue(2), program.getValue(3));
+		assertEquals(1, program.findName("laco"));
+		assertEquals(-1, program.findName("fim"));
+		assertEquals("18", program.get(0));
+		assertEquals("%RPG0", program.get(1));
+		assertEquals("&laco", program.get(3));
+		assertEquals(ObjectProgram.TEXT, program.getKind(4));
+
+		//many names: the table grows and keeps the ids
+		for (int i=0;i<1000;i++)
+			program.add("&l"+i);
+		assertEquals(3+1000, program.getNumNames());
+		assertEquals(3+999, program.findName("l999"));
+		assertEquals("&l500", program.get(5+500));
+
+		//the copy is resolved without changing the original program
+		ObjectProgram copy = program.copy();
+		copy.set(2, ObjectProgram.NUMBER, 40);
+		assertEquals("&laco", program.get(2));
+		assertEquals("40", copy.get(2));
+		try {
+			copy.toWords(1);
+			fail("a program with names was turned into words");
+		} catch (NumberFormatException e) {
+		}
+		copy.clear();
+		copy.add(ObjectProgram.NUMBER, 21);
+		int words[] = copy.toWords(1);
+		assertEquals(2, words.length);
+		assertEquals(21, words[0]);
+	}
+
+	@Test
+	public void testAssemble() throws IOException {
+		String source = "var1\n"+
+						"move 5 %RPG0\n"+
+						"move 0 %RPG1\n"+
+						"laco:\n"+
+						"add 1 %RPG1\n"+
+						"jgt %RPG0 %RPG1 laco\n"+
+						"move %RPG1 var1\n";
+		Architecture arch = new Architecture();
+		Assembler ass = new Assembler(arch);
+		ExecutableFile exec = ass.assemble(source);
+		assertEquals(1, exec.getSections().size());
+		assertEquals(17, exec.getSections().get(0).getLength()); //16 words and the -1 flag
+		assertEquals(126, exec.getStackBase());
+
+		//the image is loaded and run with no files
+		arch.loadExecutable(exec);
+		arch.controlUnitEexec();
+		assertEquals(5, arch.snapshot().getMemoryData(127));
+
+		//the same assembler makes the same image again
+		int first[] = new int[arch.getMemorySize()];
+		int second[] = new int[arch.getMemorySize()];
+		exec.load(first);
+		ass.assemble(source).load(second);
+		assertArrayEquals(first, second);
+		assertEquals(1, ass.getVariables().size());
+
+		try {
+			ass.assemble("jmp fim\n");
+			fail("a program with an undeclared label was assembled");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void testAssembleStream() throws IOException {
+		File file = File.createTempFile("testStream", ".dsf");
+		String filename = file.getPath().substring(0, file.getPath().length()-4);
+		FileWriter writer = new FileWriter(file);
+		writer.write("var1\nvar2\nmove 5 %RPG0\nlaco:\nadd 1 %RPG1\nmove %RPG1 var1\n"+
+					 "sub &var1 %RPG0\njgt %RPG0 %RPG1 laco\ncall fim\nfim:\nmove %RPG1 var2\nret\n");
+		writer.close();
+
+		//the files are the same made by makeExecutable
+		Assembler ass = new Assembler();
+		ass.read(filename);
+		ass.parse();
+		ass.makeExecutable(filename);
+		byte text[] = Files.readAllBytes(new File(filename+".dxf").toPath());
+		byte binary[] = Files.readAllBytes(new File(filename+ExecutableFile.EXTENSION).toPath());
+
+		new Assembler().assembleStream(filename);
+		assertArrayEquals(text, Files.readAllBytes(new File(filename+".dxf").toPath()));
+		assertArrayEquals(binary, Files.readAllBytes(new File(filename+ExecutableFile.EXTENSION).toPath()));
+		assertEquals(23, ExecutableFile.read(filename).getSections().get(0).getLength()); //22 words and the -1 flag
+
+		//an undeclared label: no file is kept
+		writer = new FileWriter(file);
+		writer.write("jmp fim\n");
+		writer.close();
+		try {
+			new Assembler().assembleStream(filename);
+			fail("a program with an undeclared label was assembled");
+		} catch (IllegalArgumentException e) {
+		}
+		assertFalse(new File(filename+".dxf").exists());
+		assertFalse(new File(filename+ExecutableFile.EXTENSION).exists());
+		file.delete();
+	}
+
 }
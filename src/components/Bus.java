@@ -1,8 +1,10 @@
 package components;
 
-public class Bus {
+public final class Bus {
 	
 	private int data;
+	private EventLog log; //null when the bus is not listened
+	private int logId;
 	
 	
 	
@@ -16,8 +18,20 @@ public class Bus {
 	 */
 	public void put(int data){
 		this.data = data;
+		if (EventLog.isListening() && log != null)
+			log.add(EventLog.BUS_PUT, logId, 0, data);
 	}
-	
+
+	/**
+	 * This method makes the bus write its events in a log; null stops it
+	 * @param log
+	 */
+	public void setEventLog(EventLog log) {
+		this.log = log;
+		if (log != null)
+			logId = log.idOf(this);
+	}
+
 	/**
 	 * This methos implements the retrieving of a data from the bus
 	 * @return
@@ -0,0 +1,41 @@
+package components;
+
+/**
+ * This interface is implemented by the tools that observe the components while a program runs
+ * (tracers, coverage, cache models...). The buses, memories and registers do not call it:
+ * while a listened architecture executes, they write their events in an EventLog (see setEventLog),
+ * and the architecture sends them to the listener after each command (see EventLog.flush),
+ * so a listener must not use the components
+ */
+public interface ComponentListener {
+
+	/**
+	 * This method gets a data put in the bus
+	 * @param bus
+	 * @param data
+	 */
+	public void busPut(Bus bus, int data);
+
+	/**
+	 * This method gets a data the memory put in its bus from a position
+	 * @param memory
+	 * @param position
+	 * @param data
+	 */
+	public void memoryRead(Memory memory, int position, int data);
+
+	/**
+	 * This method gets a store completed in the memory
+	 * @param memory
+	 * @param position
+	 * @param data
+	 */
+	public void memoryStored(Memory memory, int position, int data);
+
+	/**
+	 * This method gets a data a register stored from one of its buses
+	 * @param register
+	 * @param data
+	 */
+	public void registerStored(Register register, int data);
+}
@@ -0,0 +1,52 @@
+package components;
+
+/**
+ * This class keeps all the memory positions in a single int array, allocated at once
+ */
+public class DenseStorage implements Storage {
+
+	private int data[];
+
+	public DenseStorage(int size) {
+		data = new int[size];
+	}
+
+	/**
+	 * This constructor uses the array itself as the positions
+	 * @param data
+	 */
+	public DenseStorage(int data[]) {
+		this.data = data;
+	}
+
+	public int size() {
+		return data.length;
+	}
+
+	public int get(int position) {
+		return data[position];
+	}
+
+	public void set(int position, int data) {
+		this.data[position] = data;
+	}
+
+	public void read(int position, int dest[], int offset, int length) {
+		System.arraycopy(data, position, dest, offset, length);
+	}
+
+	public void write(int position, int src[], int offset, int length) {
+		System.arraycopy(src, offset, data, position, length);
+	}
+
+	/**
+	 * The array is copied at once
+	 */
+	public DenseStorage fork() {
+		return new DenseStorage(data.clone());
+	}
+
+	public int[] getArray() {
+		return data;
+	}
+}
@@ -0,0 +1,175 @@
+package components;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MutableCallSite;
+import java.util.Arrays;
+
+/**
+ * This class keeps the events of the listened components until they are sent to the listener.
+ * The components only write the events in an array of longs (see add), and only while a listened
+ * architecture is executing (see startListening): the check is a call site whose target is a
+ * constant, so when no architecture is listened the JIT removes it with the code that writes the
+ * events. It is turned off again when an architecture without listeners executes after the listened
+ * ones, so these run as if there were no listeners, also after a listened architecture ran.
+ * The switch is static, so it is shared by all the architectures of the JVM: while a listened one
+ * executes in any thread, the others check their logs too, and the code compiled without the
+ * check is compiled again each time the switch changes. Until an architecture without listeners
+ * executes, the components used directly after a listened execution also check their logs.
+ * The events are sent by flush, which the architecture calls after each command.
+ * Each event takes two longs: the kind, the id of the component and the position, then the data
+ */
+public final class EventLog {
+
+	public static final int BUS_PUT = 0;
+	public static final int MEMORY_READ = 1;
+	public static final int MEMORY_STORED = 2;
+	public static final int REGISTER_STORED = 3;
+
+	private static final int CAPACITY = 1024; //longs, many times the events of a command
+
+	private static final MutableCallSite LISTENING = new MutableCallSite(MethodHandles.constant(boolean.class, false));
+	private static final MethodHandle IS_LISTENING = LISTENING.dynamicInvoker();
+	private static int executions; //the listened architectures executing
+	private static boolean listening;
+
+	private final ComponentListener listener;
+	private Object components[];
+	private int numComponents;
+	private long events[];
+	private int size;
+
+	public EventLog(ComponentListener listener) {
+		this.listener = listener;
+		components = new Object[16];
+		events = new long[CAPACITY];
+	}
+
+	public ComponentListener getListener() {
+		return listener;
+	}
+
+	/**
+	 * This method tells if the components must write their events, that is, if a listened
+	 * architecture is executing. The JIT compiles it as a constant, compiling again the code
+	 * that uses it when it changes
+	 * @return
+	 */
+	public static boolean isListening() {
+		try {
+			return (boolean) IS_LISTENING.invokeExact();
+		} catch (Throwable e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * This method is called when a listened architecture starts to execute commands,
+	 * so the components write their events until the matching stopListening
+	 */
+	public static synchronized void startListening() {
+		executions++;
+		setListening(true);
+	}
+
+	/**
+	 * This method is called when a listened architecture stops executing. The components
+	 * go on checking for listeners until stopListeningIfIdle, so the code compiled for
+	 * many listened executions in a row is not compiled again between them
+	 */
+	public static synchronized void stopListening() {
+		executions--;
+	}
+
+	/**
+	 * This method is called when an architecture without listeners starts to execute commands:
+	 * if no listened architecture is executing, the components stop checking for listeners
+	 */
+	public static synchronized void stopListeningIfIdle() {
+		if (executions == 0)
+			setListening(false);
+	}
+
+	private static void setListening(boolean on) {
+		if (listening == on)
+			return;
+		listening = on;
+		LISTENING.setTarget(MethodHandles.constant(boolean.class, on));
+		MutableCallSite.syncAll(new MutableCallSite[] {LISTENING});
+	}
+
+	/**
+	 * This method returns the id of a component in this log, giving it one
+	 * if it has not one yet
+	 * @param component
+	 * @return
+	 */
+	public int idOf(Object component) {
+		for (int id=0;id<numComponents;id++) {
+			if (components[id] == component)
+				return id;
+		}
+		if (numComponents == components.length)
+			components = Arrays.copyOf(components, numComponents*2);
+		components[numComponents] = component;
+		return numComponents++;
+	}
+
+	/**
+	 * This method keeps an event. The array only grows when the events of a single command
+	 * do not fit in it, as the events are sent after each command
+	 * @param kind
+	 * @param id the id of the component (see idOf)
+	 * @param position the memory position, or 0
+	 * @param data
+	 */
+	public void add(int kind, int id, int position, int data) {
+		if (size == events.length)
+			events = Arrays.copyOf(events, size*2);
+		events[size] = ((long) kind << 56) | ((long) id << 32) | (position & 0xFFFFFFFFL);
+		events[size+1] = data;
+		size += 2;
+	}
+
+	/**
+	 * This method drops the events waiting to be sent
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * This method returns how many events are waiting to be sent
+	 * @return
+	 */
+	public int size() {
+		return size/2;
+	}
+
+	/**
+	 * This method sends the events to the listener, in the order they happened, and empties the log
+	 */
+	public void flush() {
+		int count = size;
+		size = 0;
+		for (int i=0;i<count;i+=2) {
+			int kind = (int) (events[i] >>> 56);
+			Object component = components[(int) (events[i] >>> 32) & 0xFFFFFF];
+			int position = (int) events[i];
+			int data = (int) events[i+1];
+			switch (kind) {
+			case BUS_PUT:
+				listener.busPut((Bus) component, data);
+				break;
+			case MEMORY_READ:
+				listener.memoryRead((Memory) component, position, data);
+				break;
+			case MEMORY_STORED:
+				listener.memoryStored((Memory) component, position, data);
+				break;
+			default:
+				listener.registerStored((Register) component, data);
+			}
+		}
+	}
+}
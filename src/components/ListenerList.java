@@ -0,0 +1,36 @@
+package components;
+
+import java.util.List;
+
+/**
+ * This class sends the events to many listeners, in the order they are in the list,
+ * so more than one tool can observe the same components
+ */
+public final class ListenerList implements ComponentListener {
+
+	private final ComponentListener listeners[];
+
+	public ListenerList(List<ComponentListener> listeners) {
+		this.listeners = listeners.toArray(new ComponentListener[listeners.size()]);
+	}
+
+	public void busPut(Bus bus, int data) {
+		for (ComponentListener listener : listeners)
+			listener.busPut(bus, data);
+	}
+
+	public void memoryRead(Memory memory, int position, int data) {
+		for (ComponentListener listener : listeners)
+			listener.memoryRead(memory, position, data);
+	}
+
+	public void memoryStored(Memory memory, int position, int data) {
+		for (ComponentListener listener : listeners)
+			listener.memoryStored(memory, position, data);
+	}
+
+	public void registerStored(Register register, int data) {
+		for (ComponentListener listener : listeners)
+			listener.registerStored(register, data);
+	}
+}
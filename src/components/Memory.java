@@ -1,32 +1,107 @@
 package components;
 
-public class Memory {
+public final class Memory {
 	
 	private Bus bus;
 	private int storePosition; //this value indicates that the memory has read an
 					// address and is waiting for a data to be storesd in this position
 	private int size;
-	private int dataList[];
+	private Storage storage;
+	private StoreListener storeListener; //notified after every completed store, may be null
+	private EventLog log; //null when the memory is not listened
+	private int logId;
+	
+	/**
+	 * This interface is implemented by the components that must know when a
+	 * memory position was overwritten (for instance, caches of decoded instructions)
+	 */
+	public interface StoreListener {
+		public void stored(int position);
+	}
 	
 	public Memory(int size, Bus bus) {
+		this(new DenseStorage(size), bus);
+	}
+
+	/**
+	 * This constructor keeps the positions in the storage given (dense, paged...)
+	 * @param storage
+	 * @param bus
+	 */
+	public Memory(Storage storage, Bus bus) {
 		storePosition = -1; //negative values indicates the memory is not storing
-		this.size = size;
-		dataList = new int[size];
+		this.size = storage.size();
+		this.storage = storage;
 		this.bus = bus;
-		for (int i=0;i<size;i++) {
-			dataList[i] = 0;
-		}
 	}
 
 	/**
 	 * This method is used for TDD and Simulation purposes only
 	 * NOT TESTED
-	 * @return
+	 * @return the array with all the positions, or null if the storage does not keep them in an array
 	 */
 	public int[] getDataList() {
-		return dataList;
+		return storage.getArray();
+	}
+
+	public Storage getStorage() {
+		return storage;
+	}
+
+	/**
+	 * This method changes where the positions are kept, for instance to a storage that
+	 * wraps the current one. The positions are not copied
+	 * @param storage
+	 * @throws IllegalArgumentException if the storage has other size
+	 */
+	public void setStorage(Storage storage) {
+		if (storage.size() != size)
+			throw new IllegalArgumentException("the storage has "+storage.size()+" positions, but the memory has "+size);
+		this.storage = storage;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * This method returns the data in the position without using the bus
+	 * @param position
+	 * @return
+	 */
+	public int getData(int position) {
+		return storage.get(position);
+	}
+
+	/**
+	 * This method overwrites the data in the position without using the bus
+	 * (the store listener is not notified)
+	 * @param position
+	 * @param data
+	 */
+	public void setData(int position, int data) {
+		storage.set(position, data);
 	}
 
+	/**
+	 * This method attaches a listener that is notified after each completed store.
+	 * Only one listener is allowed; null detaches it
+	 * @param storeListener
+	 */
+	public void setStoreListener(StoreListener storeListener) {
+		this.storeListener = storeListener;
+	}
+
+	/**
+	 * This method makes the memory write the reads and the completed stores made through the bus in a log; null stops it
+	 * @param log
+	 */
+	public void setEventLog(EventLog log) {
+		this.log = log;
+		if (log != null)
+			logId = log.idOf(this);
+	}
+	
 	/**
 	 * This method stores into position the data found in the bus
 	 * @param position
@@ -36,7 +111,11 @@ public class Memory {
 			this.storePosition = bus.get();
 		}
 		else {//the storing was initiated, in the bus is the data
-			this.dataList[storePosition] = bus.get();
+			storage.set(storePosition, bus.get());
+			if (storeListener != null)
+				storeListener.stored(storePosition);
+			if (EventLog.isListening() && log != null)
+				log.add(EventLog.MEMORY_STORED, logId, storePosition, bus.get());
 			storePosition = -1; //no storing is being performed anymore
 		}
 	}
@@ -46,22 +125,26 @@ public class Memory {
 	 * @param position
 	 */
 	public void read() {
-		if ((bus.get() < size)&&(bus.get() >=0))
-			bus.put(dataList[bus.get()]);
+		int position = bus.get();
+		if ((position < size)&&(position >=0)) {
+			bus.put(storage.get(position));
+			if (EventLog.isListening() && log != null)
+				log.add(EventLog.MEMORY_READ, logId, position, bus.get());
+		}
 	}
 	
 	/**
 	 * Special method used in statusm memory to store the data in the position 0
 	 */
 	public void storeIn0() { 
-		this.dataList[0] = bus.get();
+		storage.set(0, bus.get());
 	}
 
 	/**
 	 * Special method used in statusm memory to store the data in the position 1
 	 */
 	public void storeIn1() { 
-		this.dataList[1] = bus.get();
+		storage.set(1, bus.get());
 	}
 
 }
@@ -0,0 +1,87 @@
+package components;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * This class keeps the memory positions out of the Java heap, in a direct buffer,
+ * so big memories do not make the garbage collector work harder.
+ * The buffer may also be given (a buffer shared by many memories, a mapped file with a memory image)
+ */
+public class OffHeapStorage implements Storage {
+
+	private ByteBuffer buffer;
+	private IntBuffer data;
+
+	public OffHeapStorage(int size) {
+		this(allocate(size));
+	}
+
+	/**
+	 * This constructor uses the buffer given as the positions (4 bytes each, in the buffer byte order).
+	 * The changes are seen by everyone using the same buffer
+	 * @param buffer
+	 */
+	public OffHeapStorage(ByteBuffer buffer) {
+		this.buffer = buffer;
+		ByteBuffer positions = buffer.duplicate().order(buffer.order());
+		positions.clear();
+		data = positions.asIntBuffer();
+	}
+
+	private static ByteBuffer allocate(int size) {
+		if (size < 0 || size > Integer.MAX_VALUE/4)
+			throw new IllegalArgumentException("an off-heap memory can not have "+size+" positions");
+		return ByteBuffer.allocateDirect(size*4).order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * This method returns the buffer with the positions
+	 * @return
+	 */
+	public ByteBuffer getBuffer() {
+		return buffer;
+	}
+
+	public int size() {
+		return data.capacity();
+	}
+
+	public int get(int position) {
+		return data.get(position);
+	}
+
+	public void set(int position, int data) {
+		this.data.put(position, data);
+	}
+
+	public void read(int position, int dest[], int offset, int length) {
+		IntBuffer positions = data.duplicate();
+		positions.position(position);
+		positions.get(dest, offset, length);
+	}
+
+	public void write(int position, int src[], int offset, int length) {
+		IntBuffer positions = data.duplicate();
+		positions.position(position);
+		positions.put(src, offset, length);
+	}
+
+	/**
+	 * The positions are copied into a new direct buffer, even if this storage uses a given one
+	 */
+	public OffHeapStorage fork() {
+		OffHeapStorage copy = new OffHeapStorage(allocate(data.capacity()).order(buffer.order()));
+		copy.data.duplicate().put(data.duplicate());
+		return copy;
+	}
+
+	/**
+	 * The positions are not kept in a Java array
+	 * @return null
+	 */
+	public int[] getArray() {
+		return null;
+	}
+}
@@ -0,0 +1,190 @@
+package components;
+
+import java.util.Arrays;
+
+/**
+ * This class keeps the memory positions in fixed size pages that are allocated
+ * only when a position in them receives a value different of zero.
+ * The positions of the pages never written are zero, so big address spaces
+ * only cost the pages the program really uses.
+ * A fork shares the pages with this storage: a shared page is copied by the
+ * storage that writes it first, so each fork only costs the pages it changes
+ */
+public class PagedStorage implements Storage {
+
+	public static final int PAGE_BITS = 12;
+	public static final int PAGE_SIZE = 1 << PAGE_BITS; //positions in each page
+	private static final int OFFSET_MASK = PAGE_SIZE-1;
+
+	private int size;
+	private int pages[][]; //null for the pages not allocated yet
+	private boolean shared[]; //the pages also used by a fork (or by the storage forked)
+	private int allocatedPages;
+
+	public PagedStorage(int size) {
+		this.size = size;
+		pages = new int[(size+PAGE_SIZE-1) >> PAGE_BITS][];
+		shared = new boolean[pages.length];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * This method returns how many pages were allocated by this storage,
+	 * including the shared pages it copied. The pages received from a fork are not counted
+	 * @return
+	 */
+	public int getAllocatedPages() {
+		return allocatedPages;
+	}
+
+	public int get(int position) {
+		if (position >= size)
+			throw new ArrayIndexOutOfBoundsException(position);
+		int page[] = pages[position >> PAGE_BITS];
+		if (page == null)
+			return 0;
+		return page[position & OFFSET_MASK];
+	}
+
+	public void set(int position, int data) {
+		if (position >= size)
+			throw new ArrayIndexOutOfBoundsException(position);
+		int index = position >> PAGE_BITS;
+		int page[] = pages[index];
+		if (page == null) {
+			if (data == 0)
+				return; //the position is already zero
+			page = new int[PAGE_SIZE];
+			pages[index] = page;
+			allocatedPages++;
+		}
+		else if (shared[index]) {
+			if (page[position & OFFSET_MASK] == data)
+				return; //no need to copy the page
+			page = copyPage(index);
+		}
+		page[position & OFFSET_MASK] = data;
+	}
+
+	/**
+	 * This method gives this storage its own copy of a shared page
+	 * @param index
+	 * @return the copy
+	 */
+	private int[] copyPage(int index) {
+		int page[] = pages[index].clone();
+		pages[index] = page;
+		shared[index] = false;
+		allocatedPages++;
+		return page;
+	}
+
+	/**
+	 * This method returns how many pages are still shared with a fork
+	 * @return
+	 */
+	public int getSharedPages() {
+		int count = 0;
+		for (int i=0;i<shared.length;i++) {
+			if (shared[i])
+				count++;
+		}
+		return count;
+	}
+
+	/**
+	 * The fork receives the pages of this storage without copying them. From now on,
+	 * both storages copy a page before writing it for the first time, so they can be
+	 * used by different threads. This storage must not be written while the fork is made
+	 */
+	public PagedStorage fork() {
+		PagedStorage fork = new PagedStorage(size);
+		for (int i=0;i<pages.length;i++) {
+			if (pages[i] != null) {
+				fork.pages[i] = pages[i];
+				fork.shared[i] = true;
+				shared[i] = true;
+			}
+		}
+		return fork;
+	}
+
+	/**
+	 * This method copies the positions page by page. The pages not allocated are zeros
+	 */
+	public void read(int position, int dest[], int offset, int length) {
+		checkRange(position, length);
+		while (length > 0) {
+			int page[] = pages[position >> PAGE_BITS];
+			int start = position & OFFSET_MASK;
+			int count = Math.min(length, PAGE_SIZE-start);
+			if (page == null)
+				Arrays.fill(dest, offset, offset+count, 0);
+			else
+				System.arraycopy(page, start, dest, offset, count);
+			position += count;
+			offset += count;
+			length -= count;
+		}
+	}
+
+	/**
+	 * This method copies the values page by page. Pages are allocated only
+	 * for the parts of the values that are not all zeros, and the shared pages
+	 * are only copied when the values change them, so writing a whole state
+	 * (for instance, restoring a snapshot) keeps the pages it does not change shared
+	 */
+	public void write(int position, int src[], int offset, int length) {
+		checkRange(position, length);
+		while (length > 0) {
+			int index = position >> PAGE_BITS;
+			int start = position & OFFSET_MASK;
+			int count = Math.min(length, PAGE_SIZE-start);
+			int page[] = pages[index];
+			if (page == null && !allZeros(src, offset, count)) {
+				page = new int[PAGE_SIZE];
+				pages[index] = page;
+				allocatedPages++;
+			}
+			else if (page != null && shared[index] && !sameValues(page, start, src, offset, count))
+				page = copyPage(index);
+			if (page != null && !shared[index])
+				System.arraycopy(src, offset, page, start, count);
+			position += count;
+			offset += count;
+			length -= count;
+		}
+	}
+
+	private void checkRange(int position, int length) {
+		if (position < 0 || length < 0 || (long) position + length > size)
+			throw new ArrayIndexOutOfBoundsException(position+length);
+	}
+
+	private static boolean sameValues(int page[], int start, int values[], int offset, int length) {
+		for (int i=0;i<length;i++) {
+			if (page[start+i] != values[offset+i])
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean allZeros(int values[], int offset, int length) {
+		for (int i=offset;i<offset+length;i++) {
+			if (values[i] != 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * The positions are not kept in a single array
+	 * @return null
+	 */
+	public int[] getArray() {
+		return null;
+	}
+}
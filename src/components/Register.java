@@ -1,14 +1,19 @@
 package components;
 
-public class Register {
+public final class Register {
 	
 	private String registerName;
 	
 	private int flagBits[];
 	private int numFlags;
+	private int result;           //the last ULA result, the bits 0 and 1 are computed from it
+	private boolean pendingBits;  //the bits 0 and 1 were not computed from the result yet
 	
-	private int data;
+	private int values[]; //the data is values[index]: its own array or a register file
+	private int index;
 	private Bus busExt, busInt;
+	private EventLog log; //null when the register is not listened
+	private int logId;
 	
 	/**
 	 * Default constructor
@@ -18,10 +23,48 @@ public class Register {
 		this.registerName = name;
 		this.busExt = extBus;
 		this.busInt = intBus;
+		values = new int[1];
 	}
 	
 	public int getData() {
-		return data;
+		return values[index];
+	}
+
+	/**
+	 * This method overwrites the register data without using any bus.
+	 * It is used by the execution paths that do not simulate the microsteps
+	 * @param data
+	 */
+	public void setData(int data) {
+		values[index] = data;
+	}
+
+	/**
+	 * This method makes the register keep its data in values[index] (a position of a register file)
+	 * @param values
+	 * @param index
+	 */
+	void keepDataIn(int values[], int index) {
+		this.values = values;
+		this.index = index;
+	}
+
+	/**
+	 * This method makes the register write the data it stores from the buses in a log; null stops it
+	 * @param log
+	 */
+	public void setEventLog(EventLog log) {
+		this.log = log;
+		if (log != null)
+			logId = log.idOf(this);
+	}
+
+	Bus getExternalBus() {
+		return busExt;
+	}
+
+	Bus getInternalBus() {
+		return busInt;
 	}
 	
 	/**
@@ -39,6 +82,7 @@ public class Register {
 			flagBits[i] = 0;
 		}
 		this.busExt = bus;
+		values = new int[1];
 	}
 	
 	public String getRegisterName() {
@@ -50,6 +94,8 @@ public class Register {
 	 * @param pos
 	 */
 	public int getBit(int pos) {
+		if (pendingBits)
+			computeBits();
 		return flagBits[pos];
 		
 	}
@@ -59,37 +105,60 @@ public class Register {
 	 * @param pos
 	 */
 	public void setBit(int pos, int bit) {
+		if (pendingBits)
+			computeBits();
 		flagBits[pos] = bit;
 	}
 
+	/**
+	 * This method keeps a ULA result instead of setting the bits: the bit 0 (zero)
+	 * and the bit 1 (negative) are only computed from it when a bit is read or set.
+	 * Most results are never tested, so only the result is stored after each operation
+	 * @param result
+	 */
+	public void setResult(int result) {
+		this.result = result;
+		pendingBits = true;
+	}
+
+	private void computeBits() {
+		flagBits[0] = result==0 ? 1 : 0;
+		flagBits[1] = result<0 ? 1 : 0;
+		pendingBits = false;
+	}
+
 
 
 	/**
 	 * This method stores the data from the bus into this register
 	 */
 	public void store() {
-		data = busExt.get();
+		values[index] = busExt.get();
+		if (EventLog.isListening() && log != null)
+			log.add(EventLog.REGISTER_STORED, logId, 0, values[index]);
 	}
 	
 	/**
 	 * This method reads the data from this register and stores it into the bus
 	 */
 	public void read() {
-		busExt.put(data);
+		busExt.put(values[index]);
 	}
 	
 	/**
 	 * This method copies the data from this register to the internalbus
 	 */
 	public void internalRead() {
-		busInt.put(data);
+		busInt.put(values[index]);
 	}
 	
 	/**
 	 * This method sopies the data from the internalbus to this register
 	 */
 	public void internalStore() {
-		data = busInt.get();
+		values[index] = busInt.get();
+		if (EventLog.isListening() && log != null)
+			log.add(EventLog.REGISTER_STORED, logId, 0, values[index]);
 	}
 
 
@@ -0,0 +1,110 @@
+package components;
+
+/**
+ * This class keeps the data of a group of registers in a single int array, indexed by the
+ * register ids (the positions of the registers added to it). The registers added keep their
+ * data in the array, so they are only views of it (used by the microprograms and the simulation),
+ * while the register operations selected by an id are a few array accesses
+ */
+public final class RegisterFile {
+
+	private int data[];
+	private Bus externalBuses[];
+	private Bus internalBuses[];
+	private Register registers[];
+	private EventLog log; //null when the register file is not listened
+	private int logIds[]; //the ids of the registers in the log
+
+	public RegisterFile(int size) {
+		data = new int[size];
+		externalBuses = new Bus[size];
+		internalBuses = new Bus[size];
+		registers = new Register[size];
+	}
+
+	public int size() {
+		return data.length;
+	}
+
+	/**
+	 * This method makes the register keep its data in the position id
+	 * (its current data is copied there)
+	 * @param id
+	 * @param register
+	 */
+	public void add(int id, Register register) {
+		data[id] = register.getData();
+		register.keepDataIn(data, id);
+		externalBuses[id] = register.getExternalBus();
+		internalBuses[id] = register.getInternalBus();
+		registers[id] = register;
+	}
+
+	/**
+	 * This method makes the register file write the data stored by the register ids in a log,
+	 * as the registers themselves do; null stops it
+	 * @param log
+	 */
+	public void setEventLog(EventLog log) {
+		this.log = log;
+		if (log != null) {
+			logIds = new int[registers.length];
+			for (int id=0;id<registers.length;id++) {
+				if (registers[id] != null)
+					logIds[id] = log.idOf(registers[id]);
+			}
+		}
+	}
+
+	/**
+	 * This method returns the array with the registers data, indexed by their ids
+	 * @return
+	 */
+	public int[] getData() {
+		return data;
+	}
+
+	public int get(int id) {
+		return data[id];
+	}
+
+	public void set(int id, int value) {
+		data[id] = value;
+	}
+
+	/**
+	 * This method puts the data of the register id in its external bus
+	 * @param id
+	 */
+	public void read(int id) {
+		externalBuses[id].put(data[id]);
+	}
+
+	/**
+	 * This method puts the data of the register id in its internal bus
+	 * @param id
+	 */
+	public void internalRead(int id) {
+		internalBuses[id].put(data[id]);
+	}
+
+	/**
+	 * This method stores the data of the external bus of the register id into it
+	 * @param id
+	 */
+	public void store(int id) {
+		data[id] = externalBuses[id].get();
+		if (EventLog.isListening() && log != null)
+			log.add(EventLog.REGISTER_STORED, logIds[id], 0, data[id]);
+	}
+
+	/**
+	 * This method stores the data of the internal bus of the register id into it
+	 * @param id
+	 */
+	public void internalStore(int id) {
+		data[id] = internalBuses[id].get();
+		if (EventLog.isListening() && log != null)
+			log.add(EventLog.REGISTER_STORED, logIds[id], 0, data[id]);
+	}
+}
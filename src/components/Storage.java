@@ -0,0 +1,50 @@
+package components;
+
+/**
+ * This interface is implemented by the ways the memory positions can be kept.
+ * The Memory component reads and writes its positions only through it
+ */
+public interface Storage {
+
+	/**
+	 * This method returns the amount of positions
+	 * @return
+	 */
+	public int size();
+
+	public int get(int position);
+
+	public void set(int position, int data);
+
+	/**
+	 * This method copies length positions, from the position, into the array
+	 * @param position
+	 * @param dest
+	 * @param offset where the first position is copied in dest
+	 * @param length
+	 */
+	public void read(int position, int dest[], int offset, int length);
+
+	/**
+	 * This method copies length values of the array into the positions, from the position
+	 * @param position
+	 * @param src
+	 * @param offset where the first value is in src
+	 * @param length
+	 */
+	public void write(int position, int src[], int offset, int length);
+
+	/**
+	 * This method returns a new storage with the same positions. The changes made
+	 * later in one of them are not seen by the other
+	 * @return
+	 */
+	public Storage fork();
+
+	/**
+	 * This method returns the array with all the positions, when they are kept in a single
+	 * int array (so the execution engines can use it directly), or null
+	 * @return
+	 */
+	public int[] getArray();
+}
@@ -67,4 +67,28 @@ public class TestMemory {
 	}
 
 
+
+	@Test
+	public void testPagedMemory() {
+		Bus bus = new Bus();
+		PagedStorage storage = new PagedStorage(1 << 22);
+		Memory memory = new Memory(storage, bus); //4M positions, no page allocated yet
+		assertEquals(1 << 22, memory.getSize());
+		assertNull(memory.getDataList());
+
+		bus.put((1 << 22)-1);
+		memory.store();
+		bus.put(33);
+		memory.store();
+		bus.put((1 << 22)-1);
+		memory.read();
+		assertEquals(33, bus.get());
+		assertEquals(33, memory.getData((1 << 22)-1));
+		assertEquals(1, storage.getAllocatedPages());
+
+		//addresses out of the memory make no effect into the bus
+		bus.put(1 << 22);
+		memory.read();
+		assertEquals(1 << 22, bus.get());
+	}
 }
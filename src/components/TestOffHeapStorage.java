@@ -0,0 +1,63 @@
+package components;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Test;
+
+public class TestOffHeapStorage {
+
+	@Test
+	public void testReadStore() {
+		Bus bus = new Bus();
+		OffHeapStorage storage = new OffHeapStorage(1 << 20);
+		Memory memory = new Memory(storage, bus);
+		assertTrue(storage.getBuffer().isDirect());
+		assertEquals(1 << 20, memory.getSize());
+		assertNull(memory.getDataList());
+
+		for (int i=0;i<16;i++) {
+			bus.put((1 << 20)-1-i);
+			memory.store();
+			bus.put(-i);
+			memory.store();
+		}
+		for (int i=0;i<16;i++) {
+			bus.put((1 << 20)-1-i);
+			memory.read();
+			assertEquals(-i, bus.get());
+		}
+		assertEquals(0, memory.getData(0));
+
+		try {
+			storage.set(1 << 20, 1);
+			fail("a position out of the storage was written");
+		} catch (IndexOutOfBoundsException e) {
+		}
+	}
+
+	@Test
+	public void testSharedBuffer() {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(64*4).order(ByteOrder.LITTLE_ENDIAN);
+		OffHeapStorage first = new OffHeapStorage(buffer);
+		OffHeapStorage second = new OffHeapStorage(buffer);
+		assertEquals(64, first.size());
+
+		first.set(10, 1234);
+		assertEquals(1234, second.get(10));
+		assertEquals(1234, buffer.getInt(40)); //4 bytes per position
+
+		//a fork has its own buffer
+		OffHeapStorage fork = first.fork();
+		assertNotSame(buffer, fork.getBuffer());
+		assertEquals(ByteOrder.LITTLE_ENDIAN, fork.getBuffer().order());
+		fork.set(10, 5);
+		assertEquals(5, fork.get(10));
+		assertEquals(1234, first.get(10));
+		int words[] = new int[2];
+		fork.read(10, words, 0, 2);
+		assertEquals(5, words[0]);
+	}
+}
@@ -0,0 +1,123 @@
+package components;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TestPagedStorage {
+
+	@Test
+	public void testLazyPages() {
+		PagedStorage storage = new PagedStorage(1 << 24); //16M positions
+		assertEquals(1 << 24, storage.size());
+		assertEquals(0, storage.getAllocatedPages());
+		assertNull(storage.getArray());
+
+		//reading and writing zeros does not allocate pages
+		assertEquals(0, storage.get(5000000));
+		storage.set(5000000, 0);
+		assertEquals(0, storage.getAllocatedPages());
+
+		storage.set(5000000, 7);
+		storage.set(5000001, 8);
+		storage.set((1 << 24)-1, -1);
+		assertEquals(2, storage.getAllocatedPages());
+		assertEquals(7, storage.get(5000000));
+		assertEquals(8, storage.get(5000001));
+		assertEquals(-1, storage.get((1 << 24)-1));
+		assertEquals(0, storage.get(5000002));
+
+		//the last position of a page and the first of the next one
+		storage.set(PagedStorage.PAGE_SIZE-1, 1);
+		storage.set(PagedStorage.PAGE_SIZE, 2);
+		assertEquals(4, storage.getAllocatedPages());
+		assertEquals(1, storage.get(PagedStorage.PAGE_SIZE-1));
+		assertEquals(2, storage.get(PagedStorage.PAGE_SIZE));
+	}
+
+	@Test
+	public void testOutOfRange() {
+		PagedStorage storage = new PagedStorage(100); //smaller than a page
+		storage.set(99, 1);
+		try {
+			storage.set(100, 1);
+			fail("a position out of the storage was written");
+		} catch (ArrayIndexOutOfBoundsException e) {
+		}
+		try {
+			storage.get(-1);
+			fail("a position out of the storage was read");
+		} catch (ArrayIndexOutOfBoundsException e) {
+		}
+	}
+
+	@Test
+	public void testBulkCopy() {
+		PagedStorage storage = new PagedStorage(3*PagedStorage.PAGE_SIZE);
+		int values[] = new int[2*PagedStorage.PAGE_SIZE];
+		values[1] = 5;
+		values[values.length-1] = 6;
+
+		//the values cross the first and second pages, from the middle of the first one
+		storage.write(PagedStorage.PAGE_SIZE/2, values, 0, values.length);
+		assertEquals(2, storage.getAllocatedPages());
+		assertEquals(5, storage.get(PagedStorage.PAGE_SIZE/2+1));
+		assertEquals(6, storage.get(PagedStorage.PAGE_SIZE/2+values.length-1));
+
+		//only zeros do not allocate the last page
+		storage.write(2*PagedStorage.PAGE_SIZE+10, new int[100], 0, 100);
+		assertEquals(2, storage.getAllocatedPages());
+
+		int copy[] = new int[values.length+2];
+		copy[0] = -1;
+		storage.read(PagedStorage.PAGE_SIZE/2, copy, 1, values.length);
+		assertEquals(-1, copy[0]);
+		assertEquals(5, copy[2]);
+		assertEquals(6, copy[values.length]);
+		try {
+			storage.read(2*PagedStorage.PAGE_SIZE, copy, 0, PagedStorage.PAGE_SIZE+1);
+			fail("positions out of the storage were read");
+		} catch (ArrayIndexOutOfBoundsException e) {
+		}
+	}
+
+	@Test
+	public void testFork() {
+		PagedStorage storage = new PagedStorage(4*PagedStorage.PAGE_SIZE);
+		storage.set(1, 10);
+		storage.set(PagedStorage.PAGE_SIZE+1, 20);
+		PagedStorage fork = storage.fork();
+		assertEquals(0, fork.getAllocatedPages());
+		assertEquals(2, fork.getSharedPages());
+		assertEquals(10, fork.get(1));
+		assertEquals(20, fork.get(PagedStorage.PAGE_SIZE+1));
+
+		//writing the same value does not copy the page
+		fork.set(1, 10);
+		assertEquals(0, fork.getAllocatedPages());
+
+		fork.set(1, 11);
+		storage.set(PagedStorage.PAGE_SIZE+1, 21);
+		assertEquals(1, fork.getAllocatedPages());
+		assertEquals(1, fork.getSharedPages());
+		assertEquals(3, storage.getAllocatedPages()); //the second page was copied
+		assertEquals(11, fork.get(1));
+		assertEquals(10, storage.get(1));
+		assertEquals(20, fork.get(PagedStorage.PAGE_SIZE+1));
+		assertEquals(21, storage.get(PagedStorage.PAGE_SIZE+1));
+
+		//a bulk write of the same values keeps the pages shared
+		fork = storage.fork();
+		int words[] = new int[2*PagedStorage.PAGE_SIZE];
+		storage.read(0, words, 0, words.length);
+		storage.write(0, words, 0, words.length);
+		assertEquals(2, storage.getSharedPages());
+		assertEquals(3, storage.getAllocatedPages());
+
+		//a bulk write also copies the shared pages
+		storage.write(0, new int[] {1, 2, 3}, 0, 3);
+		assertEquals(2, storage.get(1));
+		assertEquals(10, fork.get(1));
+		assertEquals(1, storage.getSharedPages());
+	}
+}
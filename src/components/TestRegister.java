@@ -89,5 +89,60 @@ public class TestRegister {
 		assertEquals(1, intbus.get());
 	}
 
+	@Test
+	public void testFlagsResult() {
+		Register flags = new Register(2, new Bus());
+		assertEquals(0, flags.getBit(0));
+		assertEquals(0, flags.getBit(1));
+
+		flags.setResult(0);
+		assertEquals(1, flags.getBit(0));
+		assertEquals(0, flags.getBit(1));
+		flags.setResult(-5);
+		assertEquals(0, flags.getBit(0));
+		assertEquals(1, flags.getBit(1));
+
+		//setting a bit keeps the other one computed from the result
+		flags.setResult(0);
+		flags.setBit(1, 1);
+		assertEquals(1, flags.getBit(0));
+		assertEquals(1, flags.getBit(1));
+		flags.setResult(7);
+		assertEquals(0, flags.getBit(0));
+		assertEquals(0, flags.getBit(1));
+	}
+
+
+	@Test
+	public void testRegisterFile() {
+		Bus extbus = new Bus();
+		Bus intbus = new Bus();
+		Register first = new Register("first", extbus, intbus);
+		Register second = new Register("second", extbus, intbus);
+		first.setData(3);
+		RegisterFile file = new RegisterFile(2);
+		file.add(0, first);
+		file.add(1, second);
+		assertEquals(3, file.get(0)); //the data is copied into the file
+
+		//the registers and the file share the same data
+		second.setData(7);
+		assertEquals(7, file.getData()[1]);
+		file.set(0, 5);
+		assertEquals(5, first.getData());
+
+		//the operations by id use the buses of the registers
+		file.read(1);
+		assertEquals(7, extbus.get());
+		intbus.put(9);
+		file.internalStore(0);
+		assertEquals(9, first.getData());
+		first.internalRead();
+		extbus.put(0);
+		file.store(1);
+		assertEquals(0, second.getData());
+		file.internalRead(0);
+		assertEquals(9, intbus.get());
+	}
 
 }